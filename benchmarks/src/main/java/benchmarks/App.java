@@ -0,0 +1,319 @@
+package benchmarks;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Calls into the application classes, which live in the unnamed package and so cannot be
+ * imported here (JMH in turn refuses benchmarks in the unnamed package).
+ *
+ * Every entry point is a {@code static final} method handle to a public constructor or
+ * method, adapted to Object parameters. The JIT treats such handles as constants and
+ * inlines the call, so a benchmark pays the same as a direct call.
+ */
+final class App {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final Class<?> MY_HASH_MAP = type("MyHashMap");
+    private static final Class<?> MY_MAX_HEAP = type("MyMaxHeap");
+    private static final Class<?> USER = type("User");
+    private static final Class<?> POST = type("Post");
+    private static final Class<?> FEED_MANAGER = type("FeedManager");
+    private static final Class<?> OUTPUT_SINK = type("OutputSink");
+    private static final Class<?> COMMAND_TOKENIZER = type("CommandTokenizer");
+    private static final Class<?> COMMAND_BATCH = type("CommandBatch");
+    private static final Class<?> FILE_HANDLER = type("FileHandler");
+
+    private static final MethodHandle NEW_HASH_MAP =
+            constructor(MY_HASH_MAP, int.class, boolean.class);
+    private static final MethodHandle INSERT =
+            method(MY_HASH_MAP, "insert", void.class, String.class, Object.class);
+    private static final MethodHandle FIND =
+            method(MY_HASH_MAP, "find", Object.class, CharSequence.class);
+
+    private static final MethodHandle NEW_MAX_HEAP = constructor(MY_MAX_HEAP, int.class);
+    private static final MethodHandle HEAP_INSERT = method(MY_MAX_HEAP, "insert", void.class, POST);
+    private static final MethodHandle EXTRACT_MAX = method(MY_MAX_HEAP, "extractMax", POST);
+    private static final MethodHandle NEW_USER = constructor(USER, int.class, String.class);
+    private static final MethodHandle NEW_POST = constructor(POST, int.class, String.class, USER, String.class);
+    private static final MethodHandle ADD_LIKE = method(POST, "addLike", void.class, int.class);
+
+    private static final MethodHandle NEW_FEED_MANAGER = constructor(FEED_MANAGER);
+    private static final MethodHandle NEW_SINK = constructor(OUTPUT_SINK, OutputStream.class);
+    private static final MethodHandle FLUSH = method(OUTPUT_SINK, "flush", void.class);
+    private static final MethodHandle CREATE_USER =
+            method(FEED_MANAGER, "createUser", void.class, CharSequence.class, OUTPUT_SINK);
+    private static final MethodHandle FOLLOW_USER =
+            method(FEED_MANAGER, "followUser", void.class, CharSequence.class, CharSequence.class, OUTPUT_SINK);
+    private static final MethodHandle CREATE_POST = method(FEED_MANAGER, "createPost", void.class,
+            CharSequence.class, CharSequence.class, CharSequence.class, OUTPUT_SINK);
+    private static final MethodHandle TOGGLE_LIKE =
+            method(FEED_MANAGER, "toggleLike", void.class, CharSequence.class, CharSequence.class, OUTPUT_SINK);
+    private static final MethodHandle GENERATE_FEED =
+            method(FEED_MANAGER, "generateFeed", void.class, CharSequence.class, int.class, OUTPUT_SINK);
+
+    private static final MethodHandle NEW_TOKENIZER = constructor(COMMAND_TOKENIZER, InputStream.class);
+    private static final MethodHandle NEW_BATCH = constructor(COMMAND_BATCH);
+    private static final MethodHandle READ_FROM = method(COMMAND_BATCH, "readFrom", boolean.class, COMMAND_TOKENIZER);
+    private static final MethodHandle BATCH_SIZE = method(COMMAND_BATCH, "size", int.class);
+    private static final MethodHandle NEW_FILE_HANDLER = constructor(FILE_HANDLER);
+    private static final MethodHandle PROCESS_INPUT_FILE = method(FILE_HANDLER, "processInputFile",
+            void.class, String.class, String.class, int.class);
+
+    // FileHandler's sequential processing mode
+    static final int SEQUENTIAL = 0;
+
+    private App() {
+    }
+
+    static Object newHashMap(int capacity, boolean incrementalResize) {
+        try {
+            return (Object) NEW_HASH_MAP.invokeExact(capacity, incrementalResize);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void insert(Object map, String key, Object value) {
+        try {
+            INSERT.invokeExact(map, key, value);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object find(Object map, CharSequence key) {
+        try {
+            return (Object) FIND.invokeExact(map, key);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newMaxHeap(int capacity) {
+        try {
+            return (Object) NEW_MAX_HEAP.invokeExact(capacity);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void heapInsert(Object heap, Object post) {
+        try {
+            HEAP_INSERT.invokeExact(heap, post);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object extractMax(Object heap) {
+        try {
+            return (Object) EXTRACT_MAX.invokeExact(heap);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newUser(int number, String userId) {
+        try {
+            return (Object) NEW_USER.invokeExact(number, userId);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newPost(int number, String postId, Object author, String content) {
+        try {
+            return (Object) NEW_POST.invokeExact(number, postId, author, content);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void addLike(Object post, int userNumber) {
+        try {
+            ADD_LIKE.invokeExact(post, userNumber);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newFeedManager() {
+        try {
+            return (Object) NEW_FEED_MANAGER.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newSink(OutputStream out) {
+        try {
+            return (Object) NEW_SINK.invokeExact(out);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void flush(Object sink) {
+        try {
+            FLUSH.invokeExact(sink);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void createUser(Object feedManager, CharSequence userId, Object sink) {
+        try {
+            CREATE_USER.invokeExact(feedManager, userId, sink);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void followUser(Object feedManager, CharSequence userId, CharSequence followedId, Object sink) {
+        try {
+            FOLLOW_USER.invokeExact(feedManager, userId, followedId, sink);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void createPost(Object feedManager, CharSequence userId, CharSequence postId,
+                           CharSequence content, Object sink) {
+        try {
+            CREATE_POST.invokeExact(feedManager, userId, postId, content, sink);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void toggleLike(Object feedManager, CharSequence userId, CharSequence postId, Object sink) {
+        try {
+            TOGGLE_LIKE.invokeExact(feedManager, userId, postId, sink);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void generateFeed(Object feedManager, CharSequence userId, int num, Object sink) {
+        try {
+            GENERATE_FEED.invokeExact(feedManager, userId, num, sink);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newTokenizer(InputStream in) {
+        try {
+            return (Object) NEW_TOKENIZER.invokeExact(in);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newBatch() {
+        try {
+            return (Object) NEW_BATCH.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static boolean readFrom(Object batch, Object tokenizer) {
+        try {
+            return (boolean) READ_FROM.invokeExact(batch, tokenizer);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int batchSize(Object batch) {
+        try {
+            return (int) BATCH_SIZE.invokeExact(batch);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object newFileHandler() {
+        try {
+            return (Object) NEW_FILE_HANDLER.invokeExact();
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void processInputFile(Object fileHandler, String inputFile, String outputFile, int mode) {
+        try {
+            PROCESS_INPUT_FILE.invokeExact(fileHandler, inputFile, outputFile, mode);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Application class not on the class path: " + name, e);
+        }
+    }
+
+    /**
+     * Looks up a public constructor and adapts it to return Object.
+     */
+    private static MethodHandle constructor(Class<?> type, Class<?>... parameters) {
+        try {
+            MethodHandle handle = LOOKUP.findConstructor(type, MethodType.methodType(void.class, parameters));
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Looks up a public instance method and adapts every application type in its signature
+     * to Object.
+     */
+    private static MethodHandle method(Class<?> type, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            MethodHandle handle = LOOKUP.findVirtual(type, name, MethodType.methodType(returnType, parameters));
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Replaces every application class in a method type by Object; JDK types stay.
+     */
+    private static MethodType erase(MethodType type) {
+        MethodType erased = type;
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isApplicationType(type.parameterType(i))) {
+                erased = erased.changeParameterType(i, Object.class);
+            }
+        }
+        if (isApplicationType(type.returnType())) {
+            erased = erased.changeReturnType(Object.class);
+        }
+        return erased;
+    }
+
+    private static boolean isApplicationType(Class<?> type) {
+        return !type.isPrimitive() && type.getPackageName().isEmpty();
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,108 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A whole command file run end to end by FileHandler, in each processing mode.
+ *
+ * The command file is generated in the setup from a fixed seed, with the command mix of
+ * the test cases: users and posts first, then follows, likes, seen posts, feeds, scrolls
+ * and sorts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+public class CommandFileBenchmark {
+
+    @Param({"100000"})
+    public int commands;
+
+    // FileHandler.SEQUENTIAL, PIPELINED or PARALLEL
+    @Param({"0", "1", "2"})
+    public int mode;
+
+    private Path inputFile;
+    private Path outputFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        inputFile = Files.createTempFile("commands", ".txt");
+        outputFile = Files.createTempFile("results", ".txt");
+        Files.write(inputFile, commandFile(commands).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(inputFile);
+        Files.deleteIfExists(outputFile);
+    }
+
+    @Benchmark
+    public void processInputFile() {
+        App.processInputFile(App.newFileHandler(), inputFile.toString(), outputFile.toString(), mode);
+    }
+
+    /**
+     * Builds a command file of the given number of lines.
+     *
+     * @param commands the number of commands
+     * @return the command file text
+     */
+    static String commandFile(int commands) {
+        Random random = new Random(42);
+        int users = Math.max(10, commands / 50);
+        int posts = users * 3;
+        StringBuilder text = new StringBuilder(commands * 40);
+        int lines = 0;
+        for (int u = 0; u < users && lines < commands; u++, lines++) {
+            text.append("create_user user").append(u).append('\n');
+        }
+        for (int p = 0; p < posts && lines < commands; p++, lines++) {
+            text.append("create_post user").append(p % users).append(" post").append(p)
+                    .append(" content of post ").append(p).append('\n');
+        }
+        for (; lines < commands; lines++) {
+            int user = random.nextInt(users);
+            int choice = random.nextInt(100);
+            if (choice < 25) {
+                text.append("follow_user user").append(user).append(" user").append(random.nextInt(users));
+            } else if (choice < 30) {
+                text.append("unfollow_user user").append(user).append(" user").append(random.nextInt(users));
+            } else if (choice < 55) {
+                text.append("toggle_like user").append(user).append(" post").append(random.nextInt(posts));
+            } else if (choice < 65) {
+                text.append("see_post user").append(user).append(" post").append(random.nextInt(posts));
+            } else if (choice < 85) {
+                text.append("generate_feed user").append(user).append(" 10");
+            } else if (choice < 95) {
+                text.append("scroll_through_feed user").append(user).append(" 3 1 0 1");
+            } else {
+                text.append("sort_posts user").append(user);
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+}
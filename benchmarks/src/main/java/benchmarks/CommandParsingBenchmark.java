@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing alone: a command file held in memory, read by CommandTokenizer into CommandBatch
+ * records without executing anything.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class CommandParsingBenchmark {
+
+    @Param({"100000"})
+    public int commands;
+
+    private byte[] input;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        input = CommandFileBenchmark.commandFile(commands).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int parse() {
+        Object tokenizer = App.newTokenizer(new ByteArrayInputStream(input));
+        Object batch = App.newBatch();
+        int parsed = 0;
+        while (App.readFrom(batch, tokenizer)) {
+            parsed += App.batchSize(batch);
+        }
+        return parsed;
+    }
+}
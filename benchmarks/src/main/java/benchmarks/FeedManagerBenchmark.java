@@ -0,0 +1,110 @@
+package benchmarks;
+
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FeedManager commands over a population built through the public API: generate_feed for
+ * viewers following a given number of users with a given number of posts each, and
+ * toggle_like on random posts.
+ *
+ * Results go to a sink over a discarding stream, so the time includes formatting the log
+ * but no I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+public class FeedManagerBenchmark {
+    // Users that post; viewers follow some of them
+    private static final int AUTHORS = 10000;
+
+    // Users whose feeds are generated in turn, so no single feed stays in the cache
+    private static final int VIEWERS = 64;
+
+    // Likes given to every post, at random
+    private static final int MAX_LIKES = 8;
+
+    @Param({"10", "100", "1000"})
+    public int follows;
+
+    @Param({"1", "10", "100"})
+    public int postsPerUser;
+
+    @Param({"10"})
+    public int feedSize;
+
+    private Object feedManager;
+    private Object sink;
+    private String[] viewerIds;
+    private String[] postIds;
+    private int nextViewer;
+    private int nextPost;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        feedManager = App.newFeedManager();
+        sink = App.newSink(OutputStream.nullOutputStream());
+
+        String[] authorIds = new String[AUTHORS];
+        for (int i = 0; i < AUTHORS; i++) {
+            authorIds[i] = "user" + (100000000 + i);
+            App.createUser(feedManager, authorIds[i], sink);
+        }
+        viewerIds = new String[VIEWERS];
+        for (int i = 0; i < VIEWERS; i++) {
+            viewerIds[i] = "viewer" + (100000000 + i);
+            App.createUser(feedManager, viewerIds[i], sink);
+            for (int j = 0; j < follows; j++) {
+                App.followUser(feedManager, viewerIds[i], authorIds[random.nextInt(AUTHORS)], sink);
+            }
+        }
+
+        postIds = new String[AUTHORS * postsPerUser];
+        for (int i = 0; i < postIds.length; i++) {
+            postIds[i] = "post" + (100000000 + i);
+            App.createPost(feedManager, authorIds[i % AUTHORS], postIds[i], "content", sink);
+            int likes = random.nextInt(MAX_LIKES + 1);
+            for (int j = 0; j < likes; j++) {
+                App.toggleLike(feedManager, authorIds[random.nextInt(AUTHORS)], postIds[i], sink);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object generateFeed() {
+        String viewer = viewerIds[nextViewer];
+        nextViewer = (nextViewer + 1) % VIEWERS;
+        App.generateFeed(feedManager, viewer, feedSize, sink);
+        return sink;
+    }
+
+    @Benchmark
+    public Object toggleLike() {
+        // Like and unlike, so the like counts stay where the setup left them
+        String viewer = viewerIds[nextViewer];
+        String post = postIds[nextPost];
+        nextViewer = (nextViewer + 1) % VIEWERS;
+        nextPost = (nextPost + 7919) % postIds.length;
+        App.toggleLike(feedManager, viewer, post, sink);
+        App.toggleLike(feedManager, viewer, post, sink);
+        return sink;
+    }
+}
@@ -0,0 +1,91 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * MyHashMap inserts into a presized table, inserts through every resize (all at once or
+ * incremental), and successful and failed lookups.
+ *
+ * The insert benchmarks fill a fresh map per invocation and so report the time per map;
+ * divide by {@code size} for the time per key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+public class MyHashMapBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean incrementalResize;
+
+    private String[] keys;
+    private String[] missingKeys;
+    private Object filled;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        keys = new String[size];
+        missingKeys = new String[size];
+        for (int i = 0; i < size; i++) {
+            // Same shape as the user and post ids of the command files
+            keys[i] = "user" + (100000000 + i);
+            missingKeys[i] = "post" + (100000000 + i);
+        }
+        filled = App.newHashMap(size, incrementalResize);
+        for (String key : keys) {
+            App.insert(filled, key, key);
+        }
+    }
+
+    @Benchmark
+    public Object insertPresized() {
+        Object map = App.newHashMap(size, incrementalResize);
+        for (String key : keys) {
+            App.insert(map, key, key);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public Object insertGrowing() {
+        // Starts at the smallest table, so every doubling up to size is paid for
+        Object map = App.newHashMap(1, incrementalResize);
+        for (String key : keys) {
+            App.insert(map, key, key);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public void findHit(Blackhole blackhole) {
+        for (String key : keys) {
+            blackhole.consume(App.find(filled, key));
+        }
+    }
+
+    @Benchmark
+    public void findMiss(Blackhole blackhole) {
+        for (String key : missingKeys) {
+            blackhole.consume(App.find(filled, key));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * MyMaxHeap inserts and extractMax over posts with random like counts, many of them tied so
+ * that the post id comparison is exercised as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MyMaxHeapBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    public int size;
+
+    private Object[] posts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        Object author = App.newUser(1, "author");
+        posts = new Object[size];
+        for (int i = 0; i < size; i++) {
+            posts[i] = App.newPost(i + 1, "post" + (100000000 + i), author, "content");
+            int likes = random.nextInt(16);
+            for (int like = 1; like <= likes; like++) {
+                App.addLike(posts[i], like);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object insert() {
+        Object heap = App.newMaxHeap(size);
+        for (Object post : posts) {
+            App.heapInsert(heap, post);
+        }
+        return heap;
+    }
+
+    @Benchmark
+    public void insertAndExtractAll(Blackhole blackhole) {
+        Object heap = App.newMaxHeap(size);
+        for (Object post : posts) {
+            App.heapInsert(heap, post);
+        }
+        for (int i = 0; i < size; i++) {
+            blackhole.consume(App.extractMax(heap));
+        }
+    }
+}
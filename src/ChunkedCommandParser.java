@@ -0,0 +1,243 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Parses a command file in parallel and hands out the parsed batches in file order.
+ * The file is split into line-aligned chunks of about {@link #CHUNK_SIZE} bytes; every
+ * chunk is read with positional reads straight into the tokenizer's buffer and parsed into
+ * {@link CommandBatch} records by its own task on a fork-join pool, while the caller
+ * executes the batches of earlier chunks. Only a bounded window of chunks is parsed ahead,
+ * so memory use does not grow with the file size.
+ */
+public class ChunkedCommandParser implements AutoCloseable {
+    // Nominal size of a chunk; the real end is moved forward to the next line break
+    private static final long CHUNK_SIZE = 16L << 20;
+
+    // Size of the buffer used to look for line breaks near chunk boundaries
+    private static final int SCAN_SIZE = 1 << 12;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final ForkJoinPool pool;
+
+    // Start of the first chunk that has not been submitted yet
+    private long nextChunkStart;
+
+    // Submitted chunks in file order (circular array)
+    private final ChunkTask[] window;
+    private int windowHead;
+    private int windowCount;
+
+    // Chunk whose batches are being handed out, and the next batch to hand out
+    private ChunkTask current;
+    private int currentIndex;
+
+    // Bytes around a chunk boundary, starting at file position scanStart
+    private final ByteBuffer scanBuffer;
+    private long scanStart;
+
+    /**
+     * Constructs a parser over a file channel and starts parsing the first chunks.
+     *
+     * @param channel     the channel of the command file
+     * @param parallelism the number of threads parsing chunks
+     * @throws IOException if the file size cannot be read
+     */
+    public ChunkedCommandParser(FileChannel channel, int parallelism) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.window = new ChunkTask[2 * Math.max(1, parallelism)];
+        this.scanBuffer = ByteBuffer.allocate(SCAN_SIZE);
+        this.scanStart = -1;
+        submitChunks();
+    }
+
+    /**
+     * Returns the next parsed batch in file order, waiting for its chunk if necessary.
+     * Callers stop at a batch that ended with a parse or read failure, as later chunks were
+     * parsed independently of it.
+     *
+     * @return the next batch, or null at the end of the file
+     * @throws IOException if the file cannot be read around a chunk boundary
+     */
+    public CommandBatch nextBatch() throws IOException {
+        while (true) {
+            if (current != null) {
+                if (currentIndex < current.count) {
+                    CommandBatch batch = current.batches[currentIndex];
+                    current.batches[currentIndex++] = null; // Let the batch go once it is executed
+                    return batch;
+                }
+                current = null;
+            }
+
+            if (windowCount == 0) {
+                return null;
+            }
+            current = window[windowHead];
+            window[windowHead] = null;
+            windowHead = (windowHead + 1) % window.length;
+            windowCount--;
+            currentIndex = 0;
+
+            current.join();
+            submitChunks();
+        }
+    }
+
+    /**
+     * Submits chunks until the window is full or the whole file has been submitted.
+     *
+     * @throws IOException if the file cannot be read around a chunk boundary
+     */
+    private void submitChunks() throws IOException {
+        while (windowCount < window.length && nextChunkStart < fileSize) {
+            long end = chunkEnd(nextChunkStart + CHUNK_SIZE);
+            ChunkTask task = new ChunkTask(channel, nextChunkStart, end);
+            pool.execute(task);
+            window[(windowHead + windowCount) % window.length] = task;
+            windowCount++;
+            nextChunkStart = end;
+        }
+    }
+
+    /**
+     * Finds the end of a chunk: the start of the first line that begins at or after the
+     * nominal end. A "\r\n" pair is never split between two chunks.
+     *
+     * @param nominalEnd the position the chunk should end at
+     * @return the position right after the line break, or the file size
+     * @throws IOException if the file cannot be read
+     */
+    private long chunkEnd(long nominalEnd) throws IOException {
+        if (nominalEnd >= fileSize) {
+            return fileSize;
+        }
+        for (long position = nominalEnd - 1; position < fileSize; position++) {
+            int b = byteAt(position);
+            if (b == '\n') {
+                return position + 1;
+            }
+            if (b == '\r') {
+                return position + 1 < fileSize && byteAt(position + 1) == '\n' ? position + 2 : position + 1;
+            }
+        }
+        return fileSize;
+    }
+
+    /**
+     * Reads one byte of the file through the scan buffer.
+     *
+     * @param position the file position
+     * @return the byte at that position
+     * @throws IOException if the file cannot be read
+     */
+    private int byteAt(long position) throws IOException {
+        if (scanStart < 0 || position < scanStart || position >= scanStart + scanBuffer.limit()) {
+            scanBuffer.clear();
+            scanStart = position;
+            while (scanBuffer.hasRemaining() && channel.read(scanBuffer, scanStart + scanBuffer.position()) > 0) {
+                // Keep reading until the buffer is full or the file ends
+            }
+            scanBuffer.flip();
+        }
+        return scanBuffer.get((int) (position - scanStart));
+    }
+
+    /**
+     * Stops the parsing threads. The channel is left open for its owner to close.
+     */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Task that reads one chunk of the file and parses it into batches.
+     */
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+
+        // Parsed batches of the chunk
+        private CommandBatch[] batches;
+        private int count;
+
+        ChunkTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            batches = new CommandBatch[4];
+            int bufferSize = (int) Math.min(end - start, 1 << 20);
+            CommandTokenizer tokenizer = new CommandTokenizer(new ChunkInputStream(channel, start, end), bufferSize);
+
+            // A read failure ends the batch it happens in, like a parse failure
+            while (true) {
+                CommandBatch batch = new CommandBatch();
+                if (!batch.readFrom(tokenizer)) {
+                    break;
+                }
+                if (count == batches.length) {
+                    CommandBatch[] newBatches = new CommandBatch[count * 2];
+                    System.arraycopy(batches, 0, newBatches, 0, count);
+                    batches = newBatches;
+                }
+                batches[count++] = batch;
+                if (batch.error() != null) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a region of the file as a stream. Every read is a positional read into the
+     * caller's array, so chunks share the channel without moving its position.
+     */
+    private static class ChunkInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long end;
+
+        // File position of the next byte to read
+        private long position;
+
+        ChunkInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int wanted = (int) Math.min(length, end - position);
+            int read = channel.read(ByteBuffer.wrap(bytes, offset, wanted), position);
+            if (read < 0) {
+                throw new EOFException("Command file ended inside a chunk");
+            }
+            position += read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,463 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A block of parsed commands in a compact, reusable form. Every command is a fixed-size
+ * record in one int array (command code, up to three ID slices, a number and the start
+ * of its like flags); the bytes of the IDs are copied into one shared byte array and the
+ * like flags into one shared int array, which also holds the ID slices of the variable
+ * user lists of generate_feeds commands. Filling and reading a batch allocates nothing once
+ * its arrays have grown to their working size, so batches can be parsed on one thread,
+ * handed to another and recycled.
+ */
+public class CommandBatch {
+    // Command codes, as returned by code(int)
+    public static final int UNKNOWN = -1;
+    public static final int CREATE_USER = 0;
+    public static final int FOLLOW_USER = 1;
+    public static final int UNFOLLOW_USER = 2;
+    public static final int CREATE_POST = 3;
+    public static final int SEE_POST = 4;
+    public static final int SEE_ALL_POSTS_FROM_USER = 5;
+    public static final int TOGGLE_LIKE = 6;
+    public static final int GENERATE_FEED = 7;
+    public static final int SCROLL_THROUGH_FEED = 8;
+    public static final int SORT_POSTS = 9;
+    public static final int GENERATE_FEEDS = 10;
+
+    // Number of command codes (UNKNOWN aside)
+    public static final int COMMAND_COUNT = GENERATE_FEEDS + 1;
+
+    // Command names, indexed by command code
+    private static final byte[][] COMMANDS = {
+            "create_user".getBytes(StandardCharsets.US_ASCII),
+            "follow_user".getBytes(StandardCharsets.US_ASCII),
+            "unfollow_user".getBytes(StandardCharsets.US_ASCII),
+            "create_post".getBytes(StandardCharsets.US_ASCII),
+            "see_post".getBytes(StandardCharsets.US_ASCII),
+            "see_all_posts_from_user".getBytes(StandardCharsets.US_ASCII),
+            "toggle_like".getBytes(StandardCharsets.US_ASCII),
+            "generate_feed".getBytes(StandardCharsets.US_ASCII),
+            "scroll_through_feed".getBytes(StandardCharsets.US_ASCII),
+            "sort_posts".getBytes(StandardCharsets.US_ASCII),
+            "generate_feeds".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    // Number of IDs (user, post or content tokens) of every command, indexed by command code
+    // (generate_feeds lists its user IDs after its number instead)
+    private static final int[] ID_COUNTS = {1, 2, 2, 3, 2, 2, 2, 1, 1, 1, 0};
+
+    // Default maximum number of commands in a batch
+    public static final int CAPACITY = 4096;
+
+    // Number of ID bytes after which a batch stops taking commands
+    private static final int DATA_LIMIT = 1 << 18;
+
+    // Layout of a record: code, three (start, length) ID slices, number, start of the like
+    // flags (or of the ID list) and length of the ID list
+    private static final int RECORD_SIZE = 10;
+    private static final int CODE = 0;
+    private static final int IDS = 1;
+    private static final int NUMBER = 7;
+    private static final int FLAGS = 8;
+    private static final int LIST_SIZE = 9;
+
+    // Bit set in the length of an ID slice that contains non-ASCII bytes
+    private static final int NON_ASCII = 1 << 30;
+
+    private final int[] records;
+
+    // Maximum number of commands in the batch
+    private final int capacity;
+
+    // Bytes of all IDs of the batch
+    private byte[] data;
+    private int dataLength;
+
+    // Like flags of all scroll_through_feed commands of the batch, and the (start, length)
+    // slices of the user IDs of all generate_feeds commands
+    private int[] flags;
+    private int flagLength;
+
+    // Number of commands in the batch
+    private int size;
+
+    // Failure that ended the batch early (null if none)
+    private Exception error;
+
+    // Reusable views of the IDs of one command
+    private final Id[] ids;
+
+    /**
+     * Constructs an empty batch of {@link #CAPACITY} commands.
+     */
+    public CommandBatch() {
+        this(CAPACITY);
+    }
+
+    /**
+     * Constructs an empty batch of the given number of commands.
+     *
+     * @param capacity the maximum number of commands (at least 1)
+     */
+    public CommandBatch(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.records = new int[this.capacity * RECORD_SIZE];
+        this.data = new byte[this.capacity * 16];
+        this.flags = new int[256];
+        this.ids = new Id[] {new Id(), new Id(), new Id()};
+    }
+
+    /**
+     * Empties the batch so that it can be filled again.
+     */
+    public void clear() {
+        size = 0;
+        dataLength = 0;
+        flagLength = 0;
+        error = null;
+    }
+
+    /**
+     * Empties the batch and fills it with the next commands of a tokenizer. Stops when the
+     * batch is full, at the end of the input, or at the first line that cannot be parsed or
+     * read; in the last case the commands before that line are kept and the failure is
+     * available from {@link #error()}.
+     *
+     * @param tokenizer the tokenizer to read lines from
+     * @return true if the batch holds commands or a failure, false at the end of the input
+     */
+    public boolean readFrom(CommandTokenizer tokenizer) {
+        return read(tokenizer, false);
+    }
+
+    /**
+     * Like {@link #readFrom(CommandTokenizer)}, but only waits for the first line: after it,
+     * the batch stops as soon as the tokenizer has no more input ready. Used for clients
+     * that wait for results before they send more commands.
+     *
+     * @param tokenizer the tokenizer to read lines from
+     * @return true if the batch holds commands or a failure, false at the end of the input
+     */
+    public boolean readAvailable(CommandTokenizer tokenizer) {
+        return read(tokenizer, true);
+    }
+
+    /**
+     * Empties the batch and fills it with the next commands of a tokenizer.
+     *
+     * @param tokenizer     the tokenizer to read lines from
+     * @param availableOnly whether to stop once no more input is ready
+     * @return true if the batch holds commands or a failure, false at the end of the input
+     */
+    private boolean read(CommandTokenizer tokenizer, boolean availableOnly) {
+        clear();
+        try {
+            while (size < capacity && dataLength < DATA_LIMIT
+                    && (size == 0 || !availableOnly || tokenizer.ready()) && tokenizer.nextLine()) {
+                parseLine(tokenizer);
+            }
+        } catch (IOException | RuntimeException e) {
+            error = e;
+        }
+        return size > 0 || error != null;
+    }
+
+    /**
+     * Parses the current line of a tokenizer into the next record.
+     * The record only counts once the whole line has been parsed.
+     *
+     * @param tokenizer the tokenizer positioned at the start of a line
+     */
+    private void parseLine(CommandTokenizer tokenizer) {
+        int record = size * RECORD_SIZE;
+        int code = tokenizer.nextTokenIndex(COMMANDS);
+
+        if (code < 0) {
+            // Keep the name of the unknown command for the error message
+            records[record + CODE] = UNKNOWN;
+            addId(record, 0, tokenizer.lastToken());
+            size++;
+            return;
+        }
+
+        records[record + CODE] = code;
+        for (int i = 0; i < ID_COUNTS[code]; i++) {
+            addId(record, i, tokenizer.nextToken());
+        }
+
+        if (code == GENERATE_FEED) {
+            records[record + NUMBER] = tokenizer.nextInt();
+        } else if (code == SCROLL_THROUGH_FEED) {
+            int num = tokenizer.nextInt();
+            int count = Math.max(0, num);
+            if (flagLength + count > flags.length) {
+                int[] newFlags = new int[Math.max(flagLength + count, flags.length * 2)];
+                System.arraycopy(flags, 0, newFlags, 0, flagLength);
+                flags = newFlags;
+            }
+
+            // Posts without a flag are not liked
+            int given = 0;
+            while (given < count && tokenizer.hasMoreTokens()) {
+                flags[flagLength + given++] = tokenizer.nextInt();
+            }
+            for (int i = given; i < count; i++) {
+                flags[flagLength + i] = 0;
+            }
+
+            records[record + NUMBER] = num;
+            records[record + FLAGS] = flagLength;
+            flagLength += count;
+        } else if (code == GENERATE_FEEDS) {
+            records[record + NUMBER] = tokenizer.nextInt();
+            records[record + FLAGS] = flagLength;
+            int count = 0;
+            while (tokenizer.hasMoreTokens()) {
+                if (flagLength + 2 > flags.length) {
+                    int[] newFlags = new int[flags.length * 2];
+                    System.arraycopy(flags, 0, newFlags, 0, flagLength);
+                    flags = newFlags;
+                }
+                CommandTokenizer.Token token = tokenizer.nextToken();
+                flags[flagLength] = dataLength;
+                flags[flagLength + 1] = copyId(token);
+                flagLength += 2;
+                count++;
+            }
+            records[record + LIST_SIZE] = count;
+        }
+
+        size++;
+    }
+
+    /**
+     * Copies a token into the ID bytes and records its slice.
+     *
+     * @param record the start of the record
+     * @param index  the position of the ID in the command (0 to 2)
+     * @param token  the token to copy
+     */
+    private void addId(int record, int index, CommandTokenizer.Token token) {
+        records[record + IDS + 2 * index] = dataLength;
+        records[record + IDS + 2 * index + 1] = copyId(token);
+    }
+
+    /**
+     * Copies a token to the end of the ID bytes.
+     *
+     * @param token the token to copy
+     * @return the length of the slice, with {@link #NON_ASCII} set if needed
+     */
+    private int copyId(CommandTokenizer.Token token) {
+        int length = token.length();
+        if (dataLength + length > data.length) {
+            byte[] newData = new byte[Math.max(dataLength + length, data.length * 2)];
+            System.arraycopy(data, 0, newData, 0, dataLength);
+            data = newData;
+        }
+        token.copyTo(data, dataLength);
+        dataLength += length;
+        return token.isAscii() ? length : length | NON_ASCII;
+    }
+
+    /**
+     * Gets the number of commands in the batch.
+     *
+     * @return the number of commands
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the failure that ended the batch early.
+     *
+     * @return the exception, or null if the batch ended normally
+     */
+    public Exception error() {
+        return error;
+    }
+
+    /**
+     * Gets the code of a command.
+     *
+     * @param command the position of the command in the batch
+     * @return one of the command codes, or {@link #UNKNOWN}
+     */
+    public int code(int command) {
+        return records[command * RECORD_SIZE + CODE];
+    }
+
+    /**
+     * Gets the name of a command code, as written in command files.
+     *
+     * @param code a command code other than {@link #UNKNOWN}
+     * @return the command name
+     */
+    public static String commandName(int code) {
+        return new String(COMMANDS[code], StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Gets an ID of a command. For an unknown command, ID 0 is the command name.
+     * ASCII IDs are returned as views of the batch, which are reused by the next call with
+     * the same index; other IDs are decoded into a String.
+     *
+     * @param command the position of the command in the batch
+     * @param index   the position of the ID in the command (0 to 2)
+     * @return the ID
+     */
+    public CharSequence id(int command, int index) {
+        int slice = command * RECORD_SIZE + IDS + 2 * index;
+        int start = records[slice];
+        int length = records[slice + 1];
+        if ((length & NON_ASCII) != 0) {
+            return new String(data, start, length & ~NON_ASCII, StandardCharsets.UTF_8);
+        }
+
+        Id id = ids[index];
+        id.start = start;
+        id.length = length;
+        return id;
+    }
+
+    /**
+     * Gets the user IDs listed by a generate_feeds command, as Strings that stay valid
+     * after the batch is reused.
+     *
+     * @param command the position of the command in the batch
+     * @return the user IDs in command order
+     */
+    public String[] idList(int command) {
+        int record = command * RECORD_SIZE;
+        String[] list = new String[records[record + LIST_SIZE]];
+        for (int i = 0, slice = records[record + FLAGS]; i < list.length; i++, slice += 2) {
+            int length = flags[slice + 1];
+            list[i] = (length & NON_ASCII) != 0
+                    ? new String(data, flags[slice], length & ~NON_ASCII, StandardCharsets.UTF_8)
+                    : new String(data, flags[slice], length, StandardCharsets.US_ASCII);
+        }
+        return list;
+    }
+
+    /**
+     * Gets the number of a generate_feed, scroll_through_feed or generate_feeds command.
+     *
+     * @param command the position of the command in the batch
+     * @return the number of posts requested
+     */
+    public int number(int command) {
+        return records[command * RECORD_SIZE + NUMBER];
+    }
+
+    /**
+     * Copies the like flags of a scroll_through_feed command into an array.
+     *
+     * @param command     the position of the command in the batch
+     * @param destination the array to fill, reused if it is large enough
+     * @return the filled array, holding at least number(command) flags
+     */
+    public int[] copyLikeFlags(int command, int[] destination) {
+        int count = Math.max(0, number(command));
+        if (destination.length < count) {
+            destination = new int[Math.max(count, destination.length * 2)];
+        }
+        System.arraycopy(flags, records[command * RECORD_SIZE + FLAGS], destination, 0, count);
+        return destination;
+    }
+
+    /**
+     * Checks whether a command changes the state of a FeedManager (as opposed to only
+     * reading it, or being unknown).
+     *
+     * @param command the position of the command in the batch
+     * @return true for every command that can change users, posts or their relations
+     */
+    public boolean isMutating(int command) {
+        int code = code(command);
+        return code >= CREATE_USER && code <= SCROLL_THROUGH_FEED && code != GENERATE_FEED;
+    }
+
+    /**
+     * Writes a command back as a command line (without the line break), with the ID
+     * bytes exactly as they were read. A scroll_through_feed line lists a flag for every
+     * post, including the ones that defaulted to 0.
+     *
+     * @param command the position of the command in the batch
+     * @param out     the sink receiving the line
+     */
+    public void appendLine(int command, OutputSink out) {
+        int record = command * RECORD_SIZE;
+        int code = records[record + CODE];
+        if (code == UNKNOWN) {
+            appendId(record, 0, out);
+            return;
+        }
+
+        byte[] name = COMMANDS[code];
+        out.append(name, 0, name.length);
+        if (code == GENERATE_FEEDS) {
+            out.append(' ').append(records[record + NUMBER]);
+            for (int i = 0, slice = records[record + FLAGS]; i < records[record + LIST_SIZE]; i++, slice += 2) {
+                out.append(' ').append(data, flags[slice], flags[slice + 1] & ~NON_ASCII);
+            }
+            return;
+        }
+
+        for (int i = 0; i < ID_COUNTS[code]; i++) {
+            out.append(' ');
+            appendId(record, i, out);
+        }
+        if (code == GENERATE_FEED || code == SCROLL_THROUGH_FEED) {
+            out.append(' ').append(records[record + NUMBER]);
+        }
+        if (code == SCROLL_THROUGH_FEED) {
+            int start = records[record + FLAGS];
+            for (int i = 0; i < Math.max(0, records[record + NUMBER]); i++) {
+                out.append(' ').append(flags[start + i]);
+            }
+        }
+    }
+
+    /**
+     * Writes the bytes of an ID of a command.
+     *
+     * @param record the start of the record
+     * @param index  the position of the ID in the command (0 to 2)
+     * @param out    the sink receiving the bytes
+     */
+    private void appendId(int record, int index, OutputSink out) {
+        int slice = record + IDS + 2 * index;
+        out.append(data, records[slice], records[slice + 1] & ~NON_ASCII);
+    }
+
+    /**
+     * An ASCII ID of a command, viewed in place in the batch's ID bytes.
+     */
+    private class Id implements CharSequence {
+        // Position of the ID in the data array and its number of bytes
+        private int start;
+        private int length;
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) data[start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return new String(data, start, length, StandardCharsets.US_ASCII);
+        }
+    }
+}
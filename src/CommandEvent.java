@@ -0,0 +1,49 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder event of one command run by a {@link FileHandler}, from lookup to
+ * the end of its result message. Feeds additionally record a {@link FeedEvent} with their
+ * phases.
+ *
+ * Only commands of at least 1 ms are recorded by default, so a recording of a busy server
+ * stays small; a recording settings file can lower the threshold of
+ * {@code feedmanager.Command}. Without a recording the event costs nothing.
+ */
+@Name("feedmanager.Command")
+@Label("Feed Manager Command")
+@Category("Feed Manager")
+@Description("A command run against the feed manager")
+@Threshold("1 ms")
+@StackTrace(false)
+public class CommandEvent extends Event {
+    @Label("Command")
+    String command;
+
+    @Label("User ID")
+    @Description("The first ID of the command, usually the acting user")
+    String userId;
+
+    /**
+     * Fills the event in from a parsed command.
+     *
+     * @param batch   the batch holding the command
+     * @param command the index of the command in the batch
+     */
+    void set(CommandBatch batch, int command) {
+        int code = batch.code(command);
+        if (code == CommandBatch.UNKNOWN) {
+            this.command = batch.id(command, 0).toString();
+        } else {
+            this.command = CommandBatch.commandName(code);
+            if (code != CommandBatch.GENERATE_FEEDS) {
+                this.userId = batch.id(command, 0).toString();
+            }
+        }
+    }
+}
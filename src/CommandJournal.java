@@ -0,0 +1,478 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Durable write-ahead journal of the commands that change a {@link FeedManager}.
+ *
+ * A journal lives in a directory of generations: {@code snapshot-N.bin} is a
+ * {@link FeedSnapshot} of the state before generation N, and {@code journal-N.log} holds
+ * every mutating command of generation N. Each journal record is the command line as read
+ * (see {@link CommandBatch#appendLine}), framed by its length and a CRC32, so a record torn
+ * by a crash is recognized and dropped.
+ *
+ * A command is executed and appended while the journal's append lock is held, so the
+ * journal order is the execution order even when many connections share a
+ * {@link ConcurrentFeedManager}; read-only commands are not journaled and do not take the
+ * lock. Appends only copy the record into a memory buffer. A caller that needs its
+ * commands on disk calls {@link #awaitDurable(long)}: the first waiter writes out everything
+ * appended so far and forces it to disk with a single fsync, and every waiter whose
+ * commands were in that write returns without an fsync of its own (group commit).
+ *
+ * Recovery loads the newest snapshot and replays the journal of its generation; a torn
+ * tail is cut off. Compaction folds the state into the snapshot of the next generation and
+ * starts an empty journal, so recovery time depends on the state size, not on how long the
+ * service has run. Compaction runs once the journal exceeds a size limit. The new snapshot
+ * is only renamed into place once it is on disk, and the files of the previous generation
+ * are only deleted after that, so a crash at any point leaves a recoverable directory.
+ */
+public class CommandJournal implements Closeable {
+    // "IFMJ" and the format version, at the start of every journal file
+    private static final int MAGIC = 0x49464D4A;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    // Journal size at which compaction runs, unless set otherwise
+    public static final long DEFAULT_COMPACT_SIZE = 64L << 20;
+
+    // Initial size of the append buffers
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final FeedManager feedManager;
+    private final long compactSize;
+
+    // Held while a mutating command runs and is appended, and while buffers are swapped
+    private final ReentrantLock appendLock;
+
+    // Held by the thread writing out buffers, and by compaction
+    private final ReentrantLock flushLock;
+
+    // Current generation and its journal file
+    private long generation;
+    private FileChannel channel;
+
+    // Records appended but not yet written (guarded by appendLock)
+    private byte[] pending;
+    private int pendingLength;
+
+    // Buffer being written by the flushing thread, swapped with pending (guarded by flushLock)
+    private byte[] flushing;
+
+    // Sequence number of the last appended record and of the last one on disk
+    private long appendedSequence;
+    private volatile long durableSequence;
+
+    // Size of the journal file including pending records (written under appendLock)
+    private volatile long journalSize;
+
+    // Encoder of command lines (guarded by appendLock)
+    private final ByteArrayOutputStream line;
+    private final OutputSink lineSink;
+    private final CRC32 crc;
+
+    private CommandJournal(Path directory, FeedManager feedManager, long compactSize) {
+        this.directory = directory;
+        this.feedManager = feedManager;
+        this.compactSize = compactSize;
+        this.appendLock = new ReentrantLock();
+        this.flushLock = new ReentrantLock();
+        this.pending = new byte[BUFFER_SIZE];
+        this.flushing = new byte[BUFFER_SIZE];
+        this.line = new ByteArrayOutputStream(256);
+        this.lineSink = new OutputSink(line, 256);
+        this.crc = new CRC32();
+    }
+
+    /**
+     * Opens the journal in a directory with the default compaction size, recovering its
+     * state into an empty FeedManager.
+     *
+     * @param directory   the journal directory, created if missing
+     * @param feedManager the empty FeedManager that receives the recovered state
+     * @return the open journal
+     * @throws IOException if the directory cannot be read or written
+     */
+    public static CommandJournal open(String directory, FeedManager feedManager) throws IOException {
+        return open(directory, feedManager, DEFAULT_COMPACT_SIZE);
+    }
+
+    /**
+     * Opens the journal in a directory, recovering its state into an empty FeedManager:
+     * the newest snapshot is loaded and the journal of its generation is replayed.
+     * Files of older generations are deleted, and a torn record at the end of the journal
+     * is cut off.
+     *
+     * @param directory   the journal directory, created if missing
+     * @param feedManager the empty FeedManager that receives the recovered state
+     * @param compactSize the journal size in bytes at which the journal is compacted
+     * @return the open journal
+     * @throws IOException if the directory cannot be read or written
+     */
+    public static CommandJournal open(String directory, FeedManager feedManager, long compactSize) throws IOException {
+        Path path = Paths.get(directory);
+        Files.createDirectories(path);
+        CommandJournal journal = new CommandJournal(path, feedManager, compactSize);
+        journal.recover();
+        return journal;
+    }
+
+    /**
+     * Loads the newest snapshot, replays its journal and opens that journal for appending.
+     *
+     * @throws IOException if the files cannot be read or written
+     */
+    private void recover() throws IOException {
+        generation = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "snapshot-*.bin")) {
+            for (Path file : files) {
+                generation = Math.max(generation, generationOf(file));
+            }
+        }
+        if (generation > 0) {
+            FeedSnapshot.load(snapshotPath(generation).toString(), feedManager);
+        }
+        deleteOlderGenerations();
+
+        Path journalPath = journalPath(generation);
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE) {
+            // New journal, or one whose header was torn before any record
+            channel.truncate(0);
+            writeHeader(channel);
+        } else {
+            replay();
+        }
+        journalSize = channel.size();
+        channel.position(journalSize);
+    }
+
+    /**
+     * Replays the records of the open journal into the FeedManager and cuts off anything
+     * after the last intact record.
+     *
+     * @throws IOException if the journal cannot be read or is not a journal
+     */
+    private void replay() throws IOException {
+        channel.position(0);
+        RecordStream records = new RecordStream(
+                new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE)));
+        new FileHandler(feedManager).processStream(records, OutputStream.nullOutputStream());
+        if (records.validEnd < channel.size()) {
+            channel.truncate(records.validEnd);
+        }
+    }
+
+    /**
+     * Runs a mutating command and appends it to the journal as one atomic step. Only
+     * appends the command to the memory buffer; see {@link #awaitDurable(long)}.
+     *
+     * @param batch   the batch holding the command
+     * @param command the position of the command in the batch
+     * @param handler the handler that executes the command
+     * @param out     the sink receiving the result
+     * @return the sequence number of the record
+     */
+    long executeAndAppend(CommandBatch batch, int command, FileHandler handler, OutputSink out) {
+        appendLock.lock();
+        try {
+            handler.executeCommand(batch, command, out);
+
+            line.reset();
+            batch.appendLine(command, lineSink);
+            try {
+                lineSink.flush();
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // Not thrown by a byte array stream
+            }
+            int length = line.size();
+            byte[] bytes = line.toByteArray();
+            crc.reset();
+            crc.update(bytes, 0, length);
+
+            if (pendingLength + 8 + length > pending.length) {
+                byte[] newPending = new byte[Math.max(pendingLength + 8 + length, pending.length * 2)];
+                System.arraycopy(pending, 0, newPending, 0, pendingLength);
+                pending = newPending;
+            }
+            ByteBuffer.wrap(pending, pendingLength, 8).putInt(length).putInt((int) crc.getValue());
+            System.arraycopy(bytes, 0, pending, pendingLength + 8, length);
+            pendingLength += 8 + length;
+            journalSize += 8 + length;
+            return ++appendedSequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until a record and every record before it are on disk. If no other thread is
+     * writing, this thread writes out all pending records with one fsync; otherwise it waits
+     * for that thread and usually finds its record written along with the others.
+     *
+     * @param sequence the sequence number returned by the append
+     * @throws IOException if the journal cannot be written
+     */
+    public void awaitDurable(long sequence) throws IOException {
+        if (sequence <= durableSequence) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            if (sequence > durableSequence) {
+                writePending();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes out every pending record and forces the journal to disk.
+     * Must be called with the flush lock held.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    private void writePending() throws IOException {
+        int length;
+        long last;
+        appendLock.lock();
+        try {
+            byte[] full = pending;
+            pending = flushing;
+            flushing = full;
+            length = pendingLength;
+            pendingLength = 0;
+            last = appendedSequence;
+        } finally {
+            appendLock.unlock();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(flushing, 0, length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        durableSequence = last;
+    }
+
+    /**
+     * Compacts the journal if it has grown past the compaction size.
+     *
+     * @throws IOException if the snapshot or the new journal cannot be written
+     */
+    public void compactIfNeeded() throws IOException {
+        if (journalSize >= compactSize) {
+            compact();
+        }
+    }
+
+    /**
+     * Folds the current state into a snapshot of the next generation and starts an empty
+     * journal. Mutating commands wait until it is done; read-only commands go on.
+     *
+     * @throws IOException if the snapshot or the new journal cannot be written
+     */
+    public void compact() throws IOException {
+        flushLock.lock();
+        appendLock.lock();
+        try {
+            writePending();
+            if (journalSize <= HEADER_SIZE) {
+                return; // Nothing to fold
+            }
+
+            long next = generation + 1;
+            Path temporary = directory.resolve("snapshot-" + next + ".tmp");
+            FeedSnapshot.save(feedManager, temporary.toString());
+            try (FileChannel snapshot = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                snapshot.force(true);
+            }
+            Files.move(temporary, snapshotPath(next), StandardCopyOption.ATOMIC_MOVE);
+
+            FileChannel nextChannel = FileChannel.open(journalPath(next), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            writeHeader(nextChannel);
+            channel.close();
+            channel = nextChannel;
+            generation = next;
+            journalSize = HEADER_SIZE;
+            deleteOlderGenerations();
+        } finally {
+            appendLock.unlock();
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes out pending records and closes the journal file.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        flushLock.lock();
+        try {
+            writePending();
+            channel.close();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the snapshots and journals of generations before the current one.
+     *
+     * @throws IOException if the directory cannot be read or a file cannot be deleted
+     */
+    private void deleteOlderGenerations() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{snapshot-*.bin,snapshot-*.tmp,journal-*.log}")) {
+            for (Path file : files) {
+                long fileGeneration = generationOf(file);
+                if (fileGeneration < generation
+                        || (fileGeneration == generation && file.toString().endsWith(".tmp"))) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+    }
+
+    private Path snapshotPath(long generation) {
+        return directory.resolve("snapshot-" + generation + ".bin");
+    }
+
+    private Path journalPath(long generation) {
+        return directory.resolve("journal-" + generation + ".log");
+    }
+
+    /**
+     * Reads the generation from a file name such as "journal-12.log".
+     *
+     * @param file the file
+     * @return the generation, or -1 if the name has none
+     */
+    private static long generationOf(Path file) {
+        String name = file.getFileName().toString();
+        int start = name.indexOf('-') + 1;
+        int end = name.indexOf('.', start);
+        try {
+            return Long.parseLong(name.substring(start, end));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The command lines of a journal file, one per intact record. Ends at the end of the
+     * file or at the first record that is cut short or fails its checksum, and remembers
+     * where the last intact record ends.
+     */
+    private static class RecordStream extends InputStream {
+        private final DataInputStream in;
+
+        // File position after the last intact record
+        private long validEnd;
+
+        // The current line, followed by a line break
+        private byte[] line = new byte[256];
+        private int length;
+        private int position;
+
+        private boolean ended;
+        private final CRC32 crc = new CRC32();
+
+        RecordStream(DataInputStream in) throws IOException {
+            this.in = in;
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a command journal of this version");
+            }
+            this.validEnd = HEADER_SIZE;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == length && !nextRecord()) {
+                return -1;
+            }
+            return line[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int count) throws IOException {
+            if (count == 0) {
+                return 0;
+            }
+            if (position == length && !nextRecord()) {
+                return -1;
+            }
+            int copied = Math.min(count, length - position);
+            System.arraycopy(line, position, bytes, offset, copied);
+            position += copied;
+            return copied;
+        }
+
+        /**
+         * Reads the next intact record into the line buffer.
+         *
+         * @return true if there was one
+         * @throws IOException if the file cannot be read
+         */
+        private boolean nextRecord() throws IOException {
+            if (ended) {
+                return false;
+            }
+            try {
+                int recordLength = in.readInt();
+                int checksum = in.readInt();
+                if (recordLength < 0 || recordLength > (1 << 28)) {
+                    ended = true;
+                    return false;
+                }
+                if (line.length < recordLength + 1) {
+                    line = new byte[Math.max(recordLength + 1, line.length * 2)];
+                }
+                in.readFully(line, 0, recordLength);
+                crc.reset();
+                crc.update(line, 0, recordLength);
+                if ((int) crc.getValue() != checksum) {
+                    ended = true;
+                    return false;
+                }
+                line[recordLength] = '\n';
+                length = recordLength + 1;
+                position = 0;
+                validEnd += 8 + recordLength;
+                return true;
+            } catch (EOFException e) {
+                ended = true; // Torn tail
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the command line protocol of the input files over localhost TCP, so a long-running
+ * process can keep its state and answer commands as they come instead of replaying files.
+ *
+ * Every connection runs on its own thread: a virtual thread where the runtime has them,
+ * a platform thread from a cached pool otherwise. All connections share one
+ * {@link ConcurrentFeedManager}, and each has its own {@link FileHandler}, tokenizer,
+ * command batch and output sink. With a {@link CommandJournal}, mutating commands are
+ * journaled and a batch's results are only sent once its commands are on disk; the
+ * journals of all connections are forced to disk together (group commit).
+ *
+ * A client may pipeline commands: it can send many lines without waiting. The connection
+ * reads every command already received into one batch, executes them in order and
+ * flushes their results together. Results are written as in the output files, and every
+ * result is followed by an empty line, so clients can tell where multi-line results
+ * (feeds, scrolls, sorts) end. An unknown command or a line that cannot be parsed gets an
+ * error message of its own; a connection only ends when the client closes it. The line
+ * {@code metrics} answers with the latency and counter report of the shared FeedManager.
+ *
+ * Usage: java CommandServer [port] [journalDirectory]
+ */
+public class CommandServer implements Closeable {
+    // Port used when none is given
+    public static final int DEFAULT_PORT = 7250;
+
+    // Commands executed per batch, and so the most results flushed together
+    private static final int BATCH_CAPACITY = 256;
+
+    // Buffer sizes of every connection
+    private static final int INPUT_BUFFER_SIZE = 1 << 14;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 14;
+
+    private final FeedManager feedManager;
+    private final CommandJournal journal;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+
+    /**
+     * Constructs a server listening on a localhost port, with an empty
+     * {@link ConcurrentFeedManager}.
+     *
+     * @param port the port to listen on (0 picks a free port)
+     * @throws IOException if the port cannot be bound
+     */
+    public CommandServer(int port) throws IOException {
+        this(port, new ConcurrentFeedManager());
+    }
+
+    /**
+     * Constructs a server listening on a localhost port.
+     *
+     * @param port        the port to listen on (0 picks a free port)
+     * @param feedManager the FeedManager shared by all connections (must be thread-safe)
+     * @throws IOException if the port cannot be bound
+     */
+    public CommandServer(int port, FeedManager feedManager) throws IOException {
+        this(port, feedManager, null);
+    }
+
+    /**
+     * Constructs a server listening on a localhost port that journals mutating commands.
+     *
+     * @param port        the port to listen on (0 picks a free port)
+     * @param feedManager the FeedManager shared by all connections (must be thread-safe)
+     * @param journal     the journal of the FeedManager's commands, or null for none
+     * @throws IOException if the port cannot be bound
+     */
+    public CommandServer(int port, FeedManager feedManager, CommandJournal journal) throws IOException {
+        this.feedManager = feedManager;
+        this.journal = journal;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        this.connections = newConnectionExecutor();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        ConcurrentFeedManager feedManager = new ConcurrentFeedManager();
+
+        // Recover the state of the journal directory, if one is given
+        CommandJournal journal = args.length > 1 ? CommandJournal.open(args[1], feedManager) : null;
+        try (CommandServer server = new CommandServer(port, feedManager, journal)) {
+            System.out.println("Listening on " + server.serverSocket.getLocalSocketAddress());
+            server.serve();
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * Gets the port the server listens on.
+     *
+     * @return the local port
+     */
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections and hands each one to a thread of its own, until the server is
+     * closed.
+     *
+     * @throws IOException if accepting fails while the server is open
+     */
+    public void serve() throws IOException {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    return; // Closed by close()
+                }
+                throw e;
+            }
+            socket.setTcpNoDelay(true);
+            connections.execute(() -> handle(socket));
+        }
+    }
+
+    /**
+     * Stops accepting connections and waits briefly for open connections to end.
+     *
+     * @throws IOException if the server socket cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdown();
+        try {
+            connections.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs the commands of one connection until the client closes it.
+     *
+     * @param socket the connected socket
+     */
+    private void handle(Socket socket) {
+        try (socket;
+             InputStream input = socket.getInputStream();
+             OutputStream output = socket.getOutputStream()) {
+            CommandTokenizer tokenizer = new CommandTokenizer(input, INPUT_BUFFER_SIZE);
+            CommandBatch batch = new CommandBatch(BATCH_CAPACITY);
+            OutputSink out = new OutputSink(output, OUTPUT_BUFFER_SIZE);
+            FileHandler handler = new FileHandler(feedManager, journal);
+
+            while (batch.readAvailable(tokenizer)) {
+                for (int i = 0; i < batch.size(); i++) {
+                    if (!handler.execute(batch, i, out)) {
+                        if ("metrics".contentEquals(batch.id(i, 0))) {
+                            writeMetrics(out);
+                        } else {
+                            out.append("Unknown command: ").append(batch.id(i, 0));
+                        }
+                    }
+                    out.newLine().newLine();
+                }
+
+                Exception failure = batch.error();
+                if (failure instanceof IOException) {
+                    break; // The connection failed while reading
+                } else if (failure != null) {
+                    // The batch stopped at a line that could not be parsed; go on after it
+                    out.append("Some error occurred in parsing the command.").newLine().newLine();
+                }
+                handler.sync(); // Results only leave once their commands are durable
+                out.flush();
+            }
+            out.flush();
+        } catch (IOException | UncheckedIOException e) {
+            // The client went away; nothing is left to answer
+        }
+    }
+
+    /**
+     * Writes the metrics report of the shared FeedManager as one result, for the
+     * {@code metrics} request.
+     *
+     * @param out the sink of the connection
+     */
+    private void writeMetrics(OutputSink out) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream report = new PrintStream(bytes, false, StandardCharsets.UTF_8);
+        feedManager.reportMetrics(report);
+        report.flush();
+
+        // Leave the last line break to the caller, so no empty line ends the result early
+        byte[] text = bytes.toByteArray();
+        int length = text.length;
+        while (length > 0 && (text[length - 1] == '\n' || text[length - 1] == '\r')) {
+            length--;
+        }
+        out.append(text, 0, length);
+    }
+
+    /**
+     * Creates the executor running the connections: one virtual thread per connection if
+     * the runtime supports them (Java 21 and later), otherwise a cached pool of daemon
+     * platform threads. The build targets Java 17 ({@code maven.compiler.release}), so
+     * the virtual-thread executor is looked up reflectively; on a Java 17 runtime every
+     * connection gets a pooled platform thread.
+     *
+     * @return the executor
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            ThreadFactory factory = runnable -> {
+                Thread thread = new Thread(runnable, "command-connection");
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newCachedThreadPool(factory);
+        }
+    }
+}
@@ -0,0 +1,355 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a stream of command lines into space-separated tokens without creating objects
+ * per line. The input is read in large blocks into one reusable byte buffer, and every
+ * token is a {@link Token} view into that buffer: it can be compared with a command name,
+ * parsed as an int, or used directly as a lookup key, and is only copied into a String when
+ * the caller keeps it.
+ *
+ * Lines end with "\n", "\r\n" or "\r", like {@link java.io.BufferedReader#readLine()}.
+ * Tokens are split on single spaces, like {@code line.split(" ")}. Tokens only stay valid
+ * until the next call to {@link #nextLine()}.
+ */
+public class CommandTokenizer {
+    // Size of the blocks read from the input (grows if a single line is longer)
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final InputStream in;
+
+    // Bytes read from the input, valid up to limit
+    private byte[] buffer;
+    private int limit;
+
+    // Whether the end of the input has been reached
+    private boolean eof;
+
+    // Bounds of the current line (end excludes the line terminator) and start of the next one
+    private int lineStart;
+    private int lineEnd;
+    private int nextLineStart;
+
+    // Start of the next token of the current line
+    private int position;
+
+    // Reusable token views, one per token position in a line
+    private Token[] tokens;
+    private int tokenCount;
+
+    /**
+     * Constructs a tokenizer reading from a stream.
+     *
+     * @param in the stream of command lines
+     */
+    public CommandTokenizer(InputStream in) {
+        this(in, BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a tokenizer reading from a stream in blocks of the given size.
+     *
+     * @param in         the stream of command lines
+     * @param bufferSize the initial size of the buffer (at least 1)
+     */
+    public CommandTokenizer(InputStream in, int bufferSize) {
+        this.in = in;
+        this.buffer = new byte[Math.max(1, bufferSize)];
+        this.tokens = new Token[4];
+    }
+
+    /**
+     * Moves to the next line of the input.
+     *
+     * @return true if there is a line, false at the end of the input
+     * @throws IOException if the input cannot be read
+     */
+    public boolean nextLine() throws IOException {
+        lineStart = nextLineStart;
+        int scan = lineStart;
+
+        while (true) {
+            while (scan < limit && buffer[scan] != '\n' && buffer[scan] != '\r') {
+                scan++;
+            }
+
+            if (scan < limit) {
+                // A "\r" at the end of the buffer may be the first half of "\r\n"
+                if (buffer[scan] == '\r' && scan + 1 == limit && !eof) {
+                    scan -= fill();
+                    continue;
+                }
+                lineEnd = scan;
+                nextLineStart = scan + 1;
+                if (buffer[scan] == '\r' && nextLineStart < limit && buffer[nextLineStart] == '\n') {
+                    nextLineStart++;
+                }
+                break;
+            }
+
+            if (eof) {
+                if (lineStart == limit) {
+                    return false;
+                }
+                // The last line has no terminator
+                lineEnd = limit;
+                nextLineStart = limit;
+                break;
+            }
+
+            scan -= fill();
+        }
+
+        position = lineStart;
+        tokenCount = 0;
+        return true;
+    }
+
+    /**
+     * Checks whether more input can be read without blocking: either bytes after the
+     * current line are already buffered, or the stream has bytes available.
+     * Lets interactive callers answer the commands they have before waiting for more.
+     *
+     * @return true if the next call to {@link #nextLine()} has input to start on
+     * @throws IOException if the input cannot be checked
+     */
+    public boolean ready() throws IOException {
+        return nextLineStart < limit || (!eof && in.available() > 0);
+    }
+
+    /**
+     * Reads more input behind the current line. The current line is first moved to the
+     * start of the buffer, and the buffer grows if the line fills it completely.
+     *
+     * @return how far the current line moved towards the start of the buffer
+     * @throws IOException if the input cannot be read
+     */
+    private int fill() throws IOException {
+        int shift = lineStart;
+        if (shift > 0) {
+            System.arraycopy(buffer, shift, buffer, 0, limit - shift);
+            limit -= shift;
+            lineStart = 0;
+            nextLineStart -= shift;
+        }
+
+        if (limit == buffer.length) {
+            byte[] newBuffer = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, newBuffer, 0, limit);
+            buffer = newBuffer;
+        }
+
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+        return shift;
+    }
+
+    /**
+     * Checks whether the current line has another token. Like {@code split(" ")}, trailing
+     * empty tokens are not counted.
+     *
+     * @return true if another token follows
+     */
+    public boolean hasMoreTokens() {
+        for (int i = position; i < lineEnd; i++) {
+            if (buffer[i] != ' ') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the end of the token starting at the current position.
+     *
+     * @return the index right after the last byte of the token
+     */
+    private int tokenEnd() {
+        int end = position;
+        while (end < lineEnd && buffer[end] != ' ') {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Returns the next token of the current line. The token is a view into the buffer and
+     * is reused for the same position on later lines.
+     *
+     * @return the next token (empty if the line has no more tokens)
+     */
+    public Token nextToken() {
+        if (tokenCount == tokens.length) {
+            Token[] newTokens = new Token[tokens.length * 2];
+            System.arraycopy(tokens, 0, newTokens, 0, tokenCount);
+            tokens = newTokens;
+        }
+        Token token = tokens[tokenCount];
+        if (token == null) {
+            token = new Token();
+            tokens[tokenCount] = token;
+        }
+        tokenCount++;
+
+        int end = tokenEnd();
+        token.start = position;
+        token.length = end - position;
+        position = end == lineEnd ? lineEnd : end + 1;
+        return token;
+    }
+
+    /**
+     * Returns the next token of the current line as a lookup key. Plain ASCII tokens are
+     * returned as views into the buffer; tokens with other characters are decoded as UTF-8.
+     *
+     * @return the next token as a character sequence
+     */
+    public CharSequence nextId() {
+        Token token = nextToken();
+        return token.isAscii() ? token : token.toString();
+    }
+
+    /**
+     * Parses the next token of the current line as a decimal int, in place.
+     *
+     * @return the parsed value
+     * @throws NumberFormatException if the token is not a valid int
+     */
+    public int nextInt() {
+        int end = tokenEnd();
+        int index = position;
+        position = end == lineEnd ? lineEnd : end + 1;
+
+        boolean negative = false;
+        if (index < end && (buffer[index] == '-' || buffer[index] == '+')) {
+            negative = buffer[index] == '-';
+            index++;
+        }
+        if (index == end) {
+            throw new NumberFormatException("Expected a number");
+        }
+
+        long value = 0;
+        for (; index < end; index++) {
+            int digit = buffer[index] - '0';
+            if (digit < 0 || digit > 9 || value > Integer.MAX_VALUE + 1L) {
+                throw new NumberFormatException("Invalid number");
+            }
+            value = value * 10 + digit;
+        }
+
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Number out of range");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads the next token and finds it in a list of names, e.g. the command names.
+     *
+     * @param names the names to match, as ASCII bytes
+     * @return the index of the matching name, or -1 if none matches
+     */
+    public int nextTokenIndex(byte[][] names) {
+        Token token = nextToken();
+        for (int i = 0; i < names.length; i++) {
+            if (token.equalsBytes(names[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the token read by the last call of {@link #nextToken()} or
+     * {@link #nextTokenIndex(byte[][])}.
+     *
+     * @return the last token read
+     */
+    public Token lastToken() {
+        return tokens[tokenCount - 1];
+    }
+
+    /**
+     * A token of the current line, viewed in place in the tokenizer's buffer.
+     * Characters are the token's bytes, which is exact for ASCII tokens.
+     */
+    public class Token implements CharSequence {
+        // Position of the token in the buffer and its number of bytes
+        private int start;
+        private int length;
+
+        /**
+         * Checks whether every byte of the token is an ASCII character.
+         *
+         * @return true if the token is plain ASCII
+         */
+        public boolean isAscii() {
+            for (int i = start; i < start + length; i++) {
+                if (buffer[i] < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Compares the token with a name given as ASCII bytes.
+         *
+         * @param name the bytes to compare with
+         * @return true if the token consists of exactly these bytes
+         */
+        public boolean equalsBytes(byte[] name) {
+            if (name.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (buffer[start + i] != name[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Copies the bytes of the token into an array.
+         *
+         * @param destination the array receiving the bytes
+         * @param offset      the position of the first byte in the array
+         */
+        public void copyTo(byte[] destination, int offset) {
+            System.arraycopy(buffer, start, destination, offset, length);
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer[start + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        /**
+         * Copies the token into a String, decoding it as UTF-8.
+         *
+         * @return the token as a String
+         */
+        @Override
+        public String toString() {
+            return new String(buffer, start, length, StandardCharsets.UTF_8);
+        }
+    }
+}
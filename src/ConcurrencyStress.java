@@ -0,0 +1,343 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Runs a random command mix on a {@link ConcurrentFeedManager} from many threads and then
+ * checks that the shared state is still consistent.
+ *
+ * Every thread owns a set of users. Only the owner likes posts as one of its users, so it
+ * knows which posts each of them must like in the end; every other command (follows,
+ * feeds, posts, sorts) may touch any user. A lost update or a torn like shows up as a wrong
+ * toggle message during the run, or in the final checks: every like count matches its set
+ * of likers, likers and liked posts agree, every author's post index is in feed order, and
+ * every owned user likes exactly the expected posts.
+ *
+ * Usage: java ConcurrencyStress [threads] [usersPerThread] [postsPerUser] [commandsPerThread]
+ */
+public class ConcurrencyStress {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int usersPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int postsPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int commands = args.length > 3 ? Integer.parseInt(args[3]) : 25000;
+
+        ConcurrentFeedManager feedManager = new ConcurrentFeedManager();
+        Worker[] workers = new Worker[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Worker(feedManager, t, threads, usersPerThread, postsPerUser, commands);
+        }
+
+        // Users and their first posts are created concurrently, the command mix runs after that
+        run(workers, true);
+        long start = System.nanoTime();
+        run(workers, false);
+        long elapsed = System.nanoTime() - start;
+
+        int failures = 0;
+        for (Worker worker : workers) {
+            failures += worker.failures;
+        }
+        failures += check(feedManager, workers);
+
+        System.out.println("Threads: " + threads + ", users: " + threads * usersPerThread
+                + ", posts: " + feedManager.postNumbers.get() + ", commands: " + (long) threads * commands);
+        System.out.println("Command mix took " + elapsed / 1000000 + " ms ("
+                + (long) threads * commands * 1000000000L / Math.max(1, elapsed) + " commands/s)");
+        System.out.println(failures == 0 ? "OK" : "FAILED: " + failures + " inconsistencies");
+        if (failures != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs one phase on every worker and waits for all of them.
+     *
+     * @param workers the workers
+     * @param setup   true for the setup phase, false for the command mix
+     * @throws InterruptedException if the wait is interrupted
+     */
+    private static void run(Worker[] workers, boolean setup) throws InterruptedException {
+        Thread[] threads = new Thread[workers.length];
+        for (int t = 0; t < workers.length; t++) {
+            Worker worker = workers[t];
+            threads[t] = new Thread(setup ? worker::setup : worker::mix, "stress-" + t);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Checks the shared state once all threads have stopped.
+     *
+     * @param feedManager the feed manager
+     * @param workers     the workers, with the likes they expect
+     * @return the number of inconsistencies found
+     */
+    private static int check(ConcurrentFeedManager feedManager, Worker[] workers) {
+        int failures = 0;
+
+        // Index users and posts by their dense numbers
+        User[] users = new User[feedManager.userNumbers.get() + 1];
+        for (Object value : feedManager.users.values()) {
+            users[((User) value).id] = (User) value;
+        }
+        Post[] posts = new Post[feedManager.postNumbers.get() + 1];
+        for (Object value : feedManager.posts.values()) {
+            posts[((Post) value).id] = (Post) value;
+        }
+        if (feedManager.users.size() != feedManager.userNumbers.get()
+                || feedManager.posts.size() != feedManager.postNumbers.get()) {
+            failures += report("map sizes differ from the counters");
+        }
+
+        // Like counts and both directions of every like
+        for (int i = 1; i < posts.length; i++) {
+            Post post = posts[i];
+            if (post == null) {
+                failures += report("post number " + i + " is missing");
+                continue;
+            }
+            if (post.likeCount != post.likes.size()) {
+                failures += report(post.postId + " has " + post.likeCount + " likes but "
+                        + post.likes.size() + " likers");
+            }
+            for (int liker : post.likes.keys()) {
+                if (!users[liker].likedPosts.contains(post.id)) {
+                    failures += report(users[liker].userId + " does not know it likes " + post.postId);
+                }
+            }
+        }
+        for (int i = 1; i < users.length; i++) {
+            User user = users[i];
+            for (int liked : user.likedPosts.keys()) {
+                if (!posts[liked].likes.contains(user.id)) {
+                    failures += report(posts[liked].postId + " does not know " + user.userId + " likes it");
+                }
+            }
+            failures += checkPostIndex(user);
+        }
+
+        // Every owned user likes exactly the posts its owner expects
+        for (Worker worker : workers) {
+            for (int u = 0; u < worker.userIds.length; u++) {
+                User user = (User) feedManager.users.find(worker.userIds[u]);
+                HashSet<String> actual = new HashSet<>();
+                for (int liked : user.likedPosts.keys()) {
+                    actual.add(posts[liked].postId);
+                }
+                if (!actual.equals(worker.expectedLikes.get(u))) {
+                    failures += report(user.userId + " likes " + actual + ", expected "
+                            + worker.expectedLikes.get(u));
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Checks that a user's post index holds exactly the user's posts in feed order.
+     *
+     * @param user the user to check
+     * @return the number of inconsistencies found
+     */
+    private static int checkPostIndex(User user) {
+        int failures = 0;
+        PostIndex.Cursor cursor = user.postIndex.cursor();
+        Post previous = null;
+        int count = 0;
+        for (Post post = cursor.next(); post != null; post = cursor.next()) {
+            if (post.author != user || !user.posts.contains(post.id)) {
+                failures += report(post.postId + " is in the post index of " + user.userId);
+            }
+            if (previous != null && MyMaxHeap.compare(previous, post) < 0) {
+                failures += report("post index of " + user.userId + " is out of order at " + post.postId);
+            }
+            previous = post;
+            count++;
+        }
+        if (count != user.postIndex.size() || count != user.posts.cardinality()) {
+            failures += report("post index of " + user.userId + " holds " + count + " of "
+                    + user.posts.cardinality() + " posts");
+        }
+        return failures;
+    }
+
+    private static int report(String message) {
+        System.out.println("Inconsistent: " + message);
+        return 1;
+    }
+
+    /**
+     * One stress thread with its own users, random source and result buffer.
+     */
+    private static class Worker {
+        private final FeedManager feedManager;
+        private final int thread;
+        private final int threads;
+        private final int usersPerThread;
+        private final int postsPerUser;
+        private final int commands;
+        private final Random random;
+
+        // IDs of the users this worker owns, and the posts each of them must like
+        private final String[] userIds;
+        private final List<Set<String>> expectedLikes;
+
+        // Results of the current command
+        private final ByteArrayOutputStream buffer;
+        private final OutputSink out;
+
+        // Number of posts created by the command mix
+        private int extraPosts;
+
+        // Number of unexpected results seen during the run
+        private int failures;
+
+        Worker(FeedManager feedManager, int thread, int threads, int usersPerThread, int postsPerUser, int commands) {
+            this.feedManager = feedManager;
+            this.thread = thread;
+            this.threads = threads;
+            this.usersPerThread = usersPerThread;
+            this.postsPerUser = postsPerUser;
+            this.commands = commands;
+            this.random = new Random(42 + thread);
+            this.userIds = new String[usersPerThread];
+            this.expectedLikes = new ArrayList<>(usersPerThread);
+            for (int u = 0; u < usersPerThread; u++) {
+                userIds[u] = userId(thread, u);
+                expectedLikes.add(new HashSet<>());
+            }
+            this.buffer = new ByteArrayOutputStream();
+            this.out = new OutputSink(buffer, 1 << 12);
+        }
+
+        private static String userId(int thread, int user) {
+            return "u" + thread + "_" + user;
+        }
+
+        private static String postId(int thread, int user, int post) {
+            return "p" + thread + "_" + user + "_" + post;
+        }
+
+        /**
+         * Creates the worker's users and their posts.
+         */
+        void setup() {
+            for (String userId : userIds) {
+                feedManager.createUser(userId, out);
+                result();
+            }
+            for (int u = 0; u < usersPerThread; u++) {
+                for (int p = 0; p < postsPerUser; p++) {
+                    feedManager.createPost(userIds[u], postId(thread, u, p), "content", out);
+                    result();
+                }
+            }
+        }
+
+        /**
+         * Runs the random command mix.
+         */
+        void mix() {
+            int[] likeFlags = new int[8];
+            for (int i = 0; i < commands; i++) {
+                int owned = random.nextInt(usersPerThread);
+                String own = userIds[owned];
+                int choice = random.nextInt(100);
+
+                if (choice < 10) {
+                    feedManager.followUser(randomUser(), randomUser(), out);
+                    result();
+                } else if (choice < 15) {
+                    feedManager.unfollowUser(randomUser(), randomUser(), out);
+                    result();
+                } else if (choice < 45) {
+                    String postId = randomPost();
+                    feedManager.toggleLike(own, postId, out);
+                    boolean liked = expectedLikes.get(owned).add(postId);
+                    if (!liked) {
+                        expectedLikes.get(owned).remove(postId);
+                    }
+                    String expected = own + (liked ? " liked " : " unliked ") + postId + ".";
+                    String actual = result();
+                    if (!actual.equals(expected)) {
+                        failures += report("got \"" + actual + "\", expected \"" + expected + "\"");
+                    }
+                } else if (choice < 52) {
+                    feedManager.seePost(own, randomPost(), out);
+                    result();
+                } else if (choice < 55) {
+                    feedManager.seeAllPostsFromUser(own, randomUser(), out);
+                    result();
+                } else if (choice < 70) {
+                    feedManager.generateFeed(own, 1 + random.nextInt(5), out);
+                    result();
+                } else if (choice < 85) {
+                    int num = 1 + random.nextInt(likeFlags.length);
+                    for (int f = 0; f < num; f++) {
+                        likeFlags[f] = random.nextInt(3) == 0 ? 1 : 0;
+                    }
+                    feedManager.scrollThroughFeed(own, num, likeFlags, out);
+                    expectScrollLikes(owned, result());
+                } else if (choice < 92) {
+                    feedManager.sortPosts(randomUser(), out);
+                    result();
+                } else {
+                    feedManager.createPost(own, "q" + thread + "_" + extraPosts++, "content", out);
+                    result();
+                }
+            }
+        }
+
+        /**
+         * Toggles the expected likes of the posts a scroll clicked the like button of.
+         *
+         * @param owned  the position of the scrolling user among the worker's users
+         * @param result the scroll log
+         */
+        private void expectScrollLikes(int owned, String result) {
+            for (String line : result.split("\n")) {
+                if (line.endsWith(" while scrolling and clicked the like button.")) {
+                    String postId = line.split(" ")[2];
+                    if (!expectedLikes.get(owned).add(postId)) {
+                        expectedLikes.get(owned).remove(postId);
+                    }
+                }
+            }
+        }
+
+        private String randomUser() {
+            return userId(random.nextInt(threads), random.nextInt(usersPerThread));
+        }
+
+        private String randomPost() {
+            return postId(random.nextInt(threads), random.nextInt(usersPerThread), random.nextInt(postsPerUser));
+        }
+
+        /**
+         * Takes the result of the last command.
+         *
+         * @return the result message
+         */
+        private String result() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // A byte array stream does not fail
+            }
+            String result = buffer.toString(StandardCharsets.UTF_8);
+            buffer.reset();
+            return result;
+        }
+    }
+}
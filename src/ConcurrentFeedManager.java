@@ -0,0 +1,394 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A FeedManager that many threads can use at the same time.
+ *
+ * All state of a user (follows, posts, seen posts, liked posts and post index) and every
+ * post of that user is guarded by one of {@link #STRIPES} read-write locks, picked by the
+ * user's number. Every command looks its users and posts up, then holds the stripes of
+ * every user it reads or writes for its whole run, so each command is atomic. Commands on
+ * users of different stripes run in parallel, and feed reads share their stripes with each
+ * other.
+ *
+ * Users and posts are kept in {@link MyConcurrentHashMap}s, so lookups take no lock at all
+ * and creating a user or post only locks its author. Numbers come from atomic counters; a
+ * number drawn by a thread that then loses the race for an ID is skipped.
+ *
+ * Stripes are always locked in ascending order, so commands cannot deadlock. Feeds depend
+ * on the followed users, which are only known once the viewer's stripe is held: the
+ * followed users are read first, all stripes are then locked in order, and the command
+ * starts over if the followed users changed in between.
+ */
+public class ConcurrentFeedManager extends FeedManager {
+    // Number of lock stripes (a power of two)
+    static final int STRIPES = 256;
+
+    private final ReentrantReadWriteLock[] stripes;
+
+    // Stores all users and posts, in place of the single-threaded maps of FeedManager
+    final MyConcurrentHashMap users;
+    final MyConcurrentHashMap posts;
+
+    // Last number given to a user and to a post
+    final AtomicInteger userNumbers;
+    final AtomicInteger postNumbers;
+
+    /**
+     * Constructs an empty concurrent FeedManager.
+     */
+    public ConcurrentFeedManager() {
+        super(null, null); // Users and posts are kept in the concurrent maps below
+        this.stripes = new ReentrantReadWriteLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+        this.users = new MyConcurrentHashMap(100);
+        this.posts = new MyConcurrentHashMap(100);
+        this.userNumbers = new AtomicInteger();
+        this.postNumbers = new AtomicInteger();
+    }
+
+    /**
+     * Gets the stripe guarding a user and that user's posts.
+     *
+     * @param user the user
+     * @return the stripe index
+     */
+    static int stripeOf(User user) {
+        return user.id & (STRIPES - 1);
+    }
+
+    @Override
+    User findUser(CharSequence userId) {
+        return (User) this.users.find(userId);
+    }
+
+    @Override
+    Post findPost(CharSequence postId) {
+        return (Post) this.posts.find(postId);
+    }
+
+    @Override
+    User addUser(CharSequence userId) {
+        if (this.users.contains(userId)) {
+            return null; // Checked first so that a taken ID rarely costs a number
+        }
+        User user = new User(this.userNumbers.incrementAndGet(), userId.toString());
+        return this.users.putIfAbsent(user.userId, user) == null ? user : null;
+    }
+
+    @Override
+    Post addPost(User author, CharSequence postId, CharSequence content) {
+        // The author's stripe is held, so no other post of the author can appear meanwhile
+        Post first = (Post) this.posts.find(postId);
+        if (first != null && first.findByAuthor(author) != null) {
+            return null;
+        }
+        Post post = new Post(this.postNumbers.incrementAndGet(), postId.toString(), author, content.toString());
+        if (first == null) {
+            first = (Post) this.posts.putIfAbsent(post.postId, post);
+            if (first == null) {
+                return post;
+            }
+        }
+        first.chain(post); // Another author's post holds the ID
+        return post;
+    }
+
+    @Override
+    User[] usersByNumber() {
+        User[] users = new User[this.userNumbers.get() + 1];
+        for (Object value : this.users.values()) {
+            users[((User) value).id] = (User) value;
+        }
+        return users;
+    }
+
+    @Override
+    Post[] postsByNumber() {
+        Post[] posts = new Post[this.postNumbers.get() + 1];
+        for (Object value : this.posts.values()) {
+            for (Post post = (Post) value; post != null; post = post.nextWithId) {
+                posts[post.id] = post;
+            }
+        }
+        return posts;
+    }
+
+    @Override
+    void reserve(int users, int posts) {
+        // The concurrent maps grow while they are filled
+    }
+
+    @Override
+    void restoreUser(User user) {
+        this.users.putIfAbsent(user.userId, user);
+        this.userNumbers.accumulateAndGet(user.id, Math::max);
+    }
+
+    @Override
+    void restorePost(Post post) {
+        Post first = (Post) this.posts.putIfAbsent(post.postId, post);
+        if (first != null) {
+            first.chain(post);
+        }
+        this.postNumbers.accumulateAndGet(post.id, Math::max);
+    }
+
+    @Override
+    void reportTables(PrintStream out) {
+        // The lock-free tables keep no probe statistics
+        out.println("Tables: " + this.users.size() + " users, " + this.posts.size() + " posts");
+    }
+
+    @Override
+    long rehashCount() {
+        return 0; // The lock-free tables do not count their resizes
+    }
+
+    @Override
+    void followUser(User user, User userToFollow, OutputSink out) {
+        if (user == null || userToFollow == null) {
+            super.followUser(user, userToFollow, out);
+            return;
+        }
+        // Only the follower's state changes; the followed user is only compared by identity
+        ReentrantReadWriteLock.WriteLock lock = stripes[stripeOf(user)].writeLock();
+        lock.lock();
+        try {
+            super.followUser(user, userToFollow, out);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void unfollowUser(User user, User userToUnfollow, OutputSink out) {
+        if (user == null || userToUnfollow == null) {
+            super.unfollowUser(user, userToUnfollow, out);
+            return;
+        }
+        ReentrantReadWriteLock.WriteLock lock = stripes[stripeOf(user)].writeLock();
+        lock.lock();
+        try {
+            super.unfollowUser(user, userToUnfollow, out);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void createPost(User user, CharSequence postId, CharSequence content, OutputSink out) {
+        if (user == null) {
+            super.createPost(user, postId, content, out);
+            return;
+        }
+        // Others can find the post as soon as it is added, but cannot like it before it is
+        // in the author's index, as liking takes the author's stripe
+        ReentrantReadWriteLock.WriteLock lock = stripes[stripeOf(user)].writeLock();
+        lock.lock();
+        try {
+            super.createPost(user, postId, content, out);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void seePost(User user, Post post, OutputSink out) {
+        if (user == null || post == null) {
+            super.seePost(user, post, out);
+            return;
+        }
+        ReentrantReadWriteLock.WriteLock lock = stripes[stripeOf(user)].writeLock();
+        lock.lock();
+        try {
+            super.seePost(user, post, out);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    void seeAllPostsFromUser(User viewer, User viewed, OutputSink out) {
+        if (viewer == null || viewed == null) {
+            super.seeAllPostsFromUser(viewer, viewed, out);
+            return;
+        }
+        // The viewer's seen posts change, the viewed user's posts are read
+        StripeSet locks = new StripeSet();
+        locks.add(stripeOf(viewer), true);
+        locks.add(stripeOf(viewed), false);
+        locks.lock();
+        try {
+            super.seeAllPostsFromUser(viewer, viewed, out);
+        } finally {
+            locks.unlock();
+        }
+    }
+
+    @Override
+    void toggleLike(User user, Post post, OutputSink out) {
+        if (user == null || post == null) {
+            super.toggleLike(user, post, out);
+            return;
+        }
+        // The liker's sets change, and so do the post and its author's index
+        StripeSet locks = new StripeSet();
+        locks.add(stripeOf(user), true);
+        locks.add(stripeOf(post.author), true);
+        locks.lock();
+        try {
+            super.toggleLike(user, post, out);
+        } finally {
+            locks.unlock();
+        }
+    }
+
+    @Override
+    void generateFeed(User user, int num, OutputSink out, FeedIterator feed) {
+        if (user == null) {
+            super.generateFeed(user, num, out, feed);
+            return;
+        }
+        // The feed only reads the viewer and the followed users
+        StripeSet locks = lockFeed(user, false);
+        try {
+            super.generateFeed(user, num, out, feed);
+        } finally {
+            locks.unlock();
+        }
+    }
+
+    @Override
+    void scrollThroughFeed(User user, int num, int[] likeFlags, OutputSink out) {
+        if (user == null) {
+            super.scrollThroughFeed(user, num, likeFlags, out);
+            return;
+        }
+        // Scrolling marks posts as seen and likes posts of the followed users
+        StripeSet locks = lockFeed(user, true);
+        try {
+            super.scrollThroughFeed(user, num, likeFlags, out);
+        } finally {
+            locks.unlock();
+        }
+    }
+
+    @Override
+    void sortPosts(User user, OutputSink out) {
+        if (user == null) {
+            super.sortPosts(user, out);
+            return;
+        }
+        ReentrantReadWriteLock.ReadLock lock = stripes[stripeOf(user)].readLock();
+        lock.lock();
+        try {
+            super.sortPosts(user, out);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Locks the stripes of a viewer and every user the viewer follows.
+     * The followed users are read under the viewer's stripe, then every stripe is locked in
+     * ascending order; if the followed users changed while no stripe was held, the locks are
+     * released and the viewer is read again.
+     *
+     * @param viewer the user whose feed is produced
+     * @param write  whether the stripes are locked for writing (otherwise for reading)
+     * @return the locked stripes
+     */
+    private StripeSet lockFeed(User viewer, boolean write) {
+        while (true) {
+            Object[] followed;
+            ReentrantReadWriteLock.ReadLock viewerLock = stripes[stripeOf(viewer)].readLock();
+            viewerLock.lock();
+            try {
+                followed = viewer.followedUsers.values();
+            } finally {
+                viewerLock.unlock();
+            }
+
+            StripeSet locks = new StripeSet();
+            locks.add(stripeOf(viewer), write);
+            for (Object value : followed) {
+                locks.add(stripeOf((User) value), write);
+            }
+            locks.lock();
+
+            if (sameFollowedUsers(viewer, followed)) {
+                return locks;
+            }
+            locks.unlock();
+        }
+    }
+
+    /**
+     * Checks whether a user still follows exactly the given users.
+     * Must be called with the user's stripe held.
+     *
+     * @param user     the user to check
+     * @param followed the users the user followed earlier
+     * @return true if the followed users are unchanged
+     */
+    private static boolean sameFollowedUsers(User user, Object[] followed) {
+        if (user.followedUsers.size() != followed.length) {
+            return false;
+        }
+        for (Object value : followed) {
+            if (!user.isFriendsWith((User) value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A set of stripes to lock together, each for reading or for writing.
+     * A stripe requested both ways is locked for writing.
+     */
+    private class StripeSet {
+        // Requested mode of every stripe: 0 = none, 1 = read, 2 = write
+        private final byte[] modes = new byte[STRIPES];
+
+        // Lowest and highest requested stripe, to keep locking and unlocking short
+        private int low = STRIPES;
+        private int high = -1;
+
+        void add(int stripe, boolean write) {
+            modes[stripe] = (byte) Math.max(modes[stripe], write ? 2 : 1);
+            low = Math.min(low, stripe);
+            high = Math.max(high, stripe);
+        }
+
+        /**
+         * Locks every requested stripe in ascending order.
+         */
+        void lock() {
+            for (int i = low; i <= high; i++) {
+                if (modes[i] == 2) {
+                    stripes[i].writeLock().lock();
+                } else if (modes[i] == 1) {
+                    stripes[i].readLock().lock();
+                }
+            }
+        }
+
+        /**
+         * Unlocks every requested stripe.
+         */
+        void unlock() {
+            for (int i = high; i >= low; i--) {
+                if (modes[i] == 2) {
+                    stripes[i].writeLock().unlock();
+                } else if (modes[i] == 1) {
+                    stripes[i].readLock().unlock();
+                }
+            }
+        }
+    }
+}
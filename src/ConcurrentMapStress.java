@@ -0,0 +1,214 @@
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Hammers a {@link MyConcurrentHashMap} from many threads and checks that every operation
+ * behaves as if it happened at a single instant between its call and its return.
+ *
+ * Two phases run on a map that starts small, so both go through many resizes:
+ * - Racing inserts: every thread inserts every key (in its own order) with putIfAbsent.
+ *   Each key must be won by exactly one thread and must keep that thread's value.
+ * - Mixed traffic: appender threads insert fresh keys in sequence and publish how far they
+ *   got; churn threads remove and re-insert their own keys with growing version numbers;
+ *   reader threads check that every key an appender has finished inserting is found, and
+ *   that the version read for a churn key never goes back.
+ *
+ * Usage: java ConcurrentMapStress [threads] [keys]
+ */
+public class ConcurrentMapStress {
+
+    // Number of keys owned by every churn thread
+    private static final int CHURN_KEYS = 64;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int keys = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        long start = System.nanoTime();
+        int failures = racingInserts(threads, keys) + mixedTraffic(threads, keys);
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Threads: " + threads + ", keys: " + keys + ", took " + elapsed / 1000000 + " ms");
+        System.out.println(failures == 0 ? "OK" : "FAILED: " + failures + " violations");
+        if (failures != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Lets every thread insert every key and checks that each key has exactly one winner.
+     *
+     * @param threads the number of threads
+     * @param keys    the number of keys
+     * @return the number of violations found
+     * @throws InterruptedException if the wait is interrupted
+     */
+    private static int racingInserts(int threads, int keys) throws InterruptedException {
+        MyConcurrentHashMap map = new MyConcurrentHashMap(1);
+        String[] keyNames = new String[keys];
+        for (int i = 0; i < keys; i++) {
+            keyNames[i] = "k" + i;
+        }
+
+        // Thread number + 1 of the winner of every key (0 if nobody won it)
+        AtomicIntegerArray winners = new AtomicIntegerArray(keys);
+        int[] failures = new int[threads];
+
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                // Every thread starts at its own key, half of them walk backwards, so the
+                // threads meet all over the key range
+                int step = thread % 2 == 0 ? 1 : keys - 1;
+                String value = "t" + thread;
+                for (int n = 0, i = (int) ((long) thread * keys / threads); n < keys; n++, i = (i + step) % keys) {
+                    Object previous = map.putIfAbsent(keyNames[i], value);
+                    if (previous == null && !winners.compareAndSet(i, 0, thread + 1)) {
+                        failures[thread] += report(keyNames[i] + " was inserted twice");
+                    } else if (previous != null && previous.equals(value)) {
+                        failures[thread] += report(keyNames[i] + " already held this thread's value");
+                    }
+                }
+            }, "racing-" + t);
+            workers[t].start();
+        }
+        int failed = join(workers, failures);
+
+        if (map.size() != keys) {
+            failed += report("map holds " + map.size() + " keys instead of " + keys);
+        }
+        for (int i = 0; i < keys; i++) {
+            Object value = map.find(keyNames[i]);
+            if (winners.get(i) == 0 || value == null || !value.equals("t" + (winners.get(i) - 1))) {
+                failed += report(keyNames[i] + " holds " + value + " but was won by thread " + (winners.get(i) - 1));
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Runs appenders, churners and readers at the same time and checks what the readers see.
+     *
+     * @param threads the number of threads of each kind
+     * @param keys    the number of keys every appender inserts
+     * @return the number of violations found
+     * @throws InterruptedException if the wait is interrupted
+     */
+    private static int mixedTraffic(int threads, int keys) throws InterruptedException {
+        MyConcurrentHashMap map = new MyConcurrentHashMap(1);
+        int appenders = Math.max(1, threads / 2);
+        int churners = Math.max(1, threads / 4);
+        int readers = Math.max(1, threads - appenders);
+        int perAppender = keys / appenders;
+
+        // Number of keys every appender has finished inserting
+        AtomicIntegerArray progress = new AtomicIntegerArray(appenders);
+        int[] failures = new int[appenders + churners + readers];
+        Thread[] workers = new Thread[failures.length];
+        AtomicBoolean done = new AtomicBoolean();
+
+        for (int a = 0; a < appenders; a++) {
+            int appender = a;
+            workers[a] = new Thread(() -> {
+                for (int i = 0; i < perAppender; i++) {
+                    map.insert("a" + appender + "_" + i, i);
+                    progress.set(appender, i + 1);
+                }
+            }, "appender-" + a);
+        }
+
+        for (int c = 0; c < churners; c++) {
+            int churner = c;
+            workers[appenders + c] = new Thread(() -> {
+                int[] versions = new int[CHURN_KEYS];
+                Random random = new Random(churner);
+                while (!done.get()) {
+                    int j = random.nextInt(CHURN_KEYS);
+                    String key = "c" + churner + "_" + j;
+                    map.remove(key);
+                    map.insert(key, ++versions[j]);
+                }
+            }, "churner-" + c);
+        }
+
+        for (int r = 0; r < readers; r++) {
+            int reader = appenders + churners + r;
+            workers[reader] = new Thread(() -> {
+                int[][] lastSeen = new int[churners][CHURN_KEYS];
+                Random random = new Random(reader);
+                while (!done.get()) {
+                    // A key whose insert finished before this lookup started must be found
+                    int a = random.nextInt(appenders);
+                    int finished = progress.get(a);
+                    if (finished > 0) {
+                        int i = random.nextBoolean() ? finished - 1 : random.nextInt(finished);
+                        Object value = map.find("a" + a + "_" + i);
+                        if (value == null || (Integer) value != i) {
+                            failures[reader] += report("a" + a + "_" + i + " was inserted but read as " + value);
+                        }
+                    }
+
+                    // Versions of a churn key only ever grow
+                    int c = random.nextInt(churners);
+                    int j = random.nextInt(CHURN_KEYS);
+                    Object value = map.find("c" + c + "_" + j);
+                    if (value != null) {
+                        int version = (Integer) value;
+                        if (version < lastSeen[c][j]) {
+                            failures[reader] += report("c" + c + "_" + j + " went back from version "
+                                    + lastSeen[c][j] + " to " + version);
+                        }
+                        lastSeen[c][j] = version;
+                    }
+                }
+            }, "reader-" + r);
+        }
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (int a = 0; a < appenders; a++) {
+            workers[a].join();
+        }
+        done.set(true);
+        int failed = join(workers, failures);
+
+        // Every appended key is present, and every churn key that was touched holds a value
+        for (int a = 0; a < appenders; a++) {
+            for (int i = 0; i < perAppender; i++) {
+                if (map.find("a" + a + "_" + i) == null) {
+                    failed += report("a" + a + "_" + i + " is missing at the end");
+                }
+            }
+        }
+        int churnKeys = map.size() - appenders * perAppender;
+        if (churnKeys < 0 || churnKeys > churners * CHURN_KEYS || map.keys().length != map.size()) {
+            failed += report("map size " + map.size() + " does not match its keys");
+        }
+        return failed;
+    }
+
+    /**
+     * Waits for every worker and adds up the violations they found.
+     *
+     * @param workers  the worker threads
+     * @param failures the violations found by every worker
+     * @return the total number of violations
+     * @throws InterruptedException if the wait is interrupted
+     */
+    private static int join(Thread[] workers, int[] failures) throws InterruptedException {
+        int total = 0;
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].join();
+            total += failures[i];
+        }
+        return total;
+    }
+
+    private static int report(String message) {
+        System.out.println("Violation: " + message);
+        return 1;
+    }
+}
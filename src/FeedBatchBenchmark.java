@@ -0,0 +1,111 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how {@link FeedManager#generateFeeds} scales with the number of threads.
+ * Builds a population through the public FeedManager API, generates the feeds of every
+ * user once one at a time and then on fork-join pools of 1, 2, 4, ... threads up to the
+ * processor count, checks that every run logs exactly the same bytes, and prints the
+ * speedup of each pool over the sequential run.
+ *
+ * Usage: java FeedBatchBenchmark [users] [followsPerUser] [postsPerUser] [likesPerPost] [feedSize]
+ */
+public class FeedBatchBenchmark {
+    // Runs per configuration; the fastest one is reported
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int follows = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int postsPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int likes = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        int feedSize = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        int posts = users * postsPerUser;
+        Random random = new Random(42);
+
+        String[] userIds = new String[users];
+        for (int i = 0; i < users; i++) {
+            userIds[i] = "user" + (100000000 + i);
+        }
+
+        FeedManager feedManager = new FeedManager();
+        OutputSink sink = new OutputSink(OutputStream.nullOutputStream()); // Results are discarded
+        for (int i = 0; i < users; i++) {
+            feedManager.createUser(userIds[i], sink);
+        }
+        for (int i = 0; i < users; i++) {
+            for (int j = 0; j < follows; j++) {
+                feedManager.followUser(userIds[i], userIds[random.nextInt(users)], sink);
+            }
+        }
+        for (int i = 0; i < posts; i++) {
+            feedManager.createPost(userIds[i % users], "post" + (100000000 + i), "content", sink);
+        }
+        for (int i = 0; i < posts; i++) {
+            for (int j = 0; j < likes; j++) {
+                feedManager.toggleLike(userIds[random.nextInt(users)], "post" + (100000000 + i), sink);
+            }
+        }
+
+        // One generate_feed per user, as the command file would run them
+        byte[] expected = null;
+        long sequential = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            OutputSink out = new OutputSink(bytes);
+            long start = System.nanoTime();
+            for (int i = 0; i < users; i++) {
+                if (i > 0) {
+                    out.newLine();
+                }
+                feedManager.generateFeed(userIds[i], feedSize, out);
+            }
+            out.flush();
+            sequential = Math.min(sequential, System.nanoTime() - start);
+            expected = bytes.toByteArray();
+        }
+
+        System.out.println("Users: " + users + ", follows per user: " + follows + ", posts: " + posts
+                + ", likes per post: " + likes + ", feed size: " + feedSize);
+        System.out.println("Sequential:  " + sequential / 1000000 + " ms");
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        boolean same = true;
+        for (int threads = 1; threads <= processors; threads = nextThreadCount(threads, processors)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(expected.length);
+                OutputSink out = new OutputSink(bytes);
+                long start = System.nanoTime();
+                feedManager.generateFeeds(userIds, feedSize, out, pool);
+                out.flush();
+                best = Math.min(best, System.nanoTime() - start);
+                same &= Arrays.equals(expected, bytes.toByteArray());
+            }
+            pool.shutdown();
+            System.out.printf("%2d threads: %d ms, speedup %.2f%n",
+                    threads, best / 1000000, (double) sequential / Math.max(1, best));
+        }
+
+        System.out.println(same ? "OK: parallel feeds equal the sequential ones" : "FAILED: parallel feeds differ");
+        if (!same) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Gets the next pool size to measure: double the last one, ending at the processor count.
+     *
+     * @param threads    the last pool size
+     * @param processors the number of processors
+     * @return the next pool size, above processors once all are measured
+     */
+    private static int nextThreadCount(int threads, int processors) {
+        return threads < processors ? Math.min(2 * threads, processors) : processors + 1;
+    }
+}
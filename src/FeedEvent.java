@@ -0,0 +1,68 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder event of one feed produced by generate_feed, generate_feeds or
+ * scroll_through_feed, with the time spent in each of its phases (see {@link FeedTrace})
+ * and the work done. The phases interleave once posts are taken, so they are recorded as
+ * durations in one event rather than as events of their own.
+ *
+ * Like {@link CommandEvent}, only feeds of at least 1 ms are recorded by default.
+ */
+@Name("feedmanager.Feed")
+@Label("Feed")
+@Category("Feed Manager")
+@Description("One feed with the time spent in candidate collection, heap build, extraction and output formatting")
+@Threshold("1 ms")
+@StackTrace(false)
+public class FeedEvent extends Event {
+    @Label("Command")
+    String command;
+
+    @Label("User ID")
+    @Description("The viewer of the feed")
+    String userId;
+
+    @Label("Followees")
+    int followees;
+
+    @Label("Cursors")
+    @Description("Followed users that had posts")
+    int cursors;
+
+    @Label("Candidates Scanned")
+    @Description("Posts taken off the cursors, returned or filtered out as seen")
+    int candidatesScanned;
+
+    @Label("Seen Filtered")
+    int seenFiltered;
+
+    @Label("Heap Operations")
+    int heapOperations;
+
+    @Label("Posts")
+    @Description("Posts returned by the feed")
+    int posts;
+
+    @Label("Candidate Collection")
+    @Timespan(Timespan.NANOSECONDS)
+    long collectionTime;
+
+    @Label("Heap Build")
+    @Timespan(Timespan.NANOSECONDS)
+    long heapBuildTime;
+
+    @Label("Extraction")
+    @Timespan(Timespan.NANOSECONDS)
+    long extractionTime;
+
+    @Label("Output Formatting")
+    @Timespan(Timespan.NANOSECONDS)
+    long formattingTime;
+}
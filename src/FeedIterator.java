@@ -0,0 +1,216 @@
+/**
+ * Lazily produces the feed of a user: the unseen posts of every followed user,
+ * in descending order of like count (lexicographically larger post ID first on ties).
+ * Every followed user contributes a cursor over their own post index, and a heap of those
+ * cursors merges them. Posts are only visited as they are requested, so producing the
+ * first k feed posts touches roughly k posts plus the seen posts skipped on the way.
+ * The post indexes must not be modified while the iterator is in use.
+ */
+public class FeedIterator {
+    // The user whose feed is being produced
+    private User viewer;
+
+    // Heap of cursors ordered by the post each of them points at (1-based indexing)
+    private PostIndex.Cursor[] cursors;
+
+    // Current number of cursors in the heap
+    private int size;
+
+    // Cursors kept for reuse by reset(User); cursors[1..size] are always taken from here
+    private PostIndex.Cursor[] spareCursors;
+
+    // Work done for the current feed: posts taken off the cursors, seen posts among them,
+    // and sift-downs of the cursor heap
+    private int scanned;
+    private int seenSkipped;
+    private int heapOperations;
+
+    /**
+     * Constructs an iterator with no feed, to be started with {@link #reset(User)}.
+     * One such iterator can produce many feeds one after another, reusing its cursors.
+     */
+    public FeedIterator() {
+        this.cursors = new PostIndex.Cursor[1];
+        this.spareCursors = new PostIndex.Cursor[1];
+    }
+
+    /**
+     * Starts over with the feed of another viewer. The cursor heap and the cursors of the
+     * previous feed are reused, so a warmed-up iterator allocates nothing here.
+     *
+     * @param viewer the user whose feed is being produced
+     */
+    public void reset(User viewer) {
+        collect(viewer);
+        buildHeap();
+    }
+
+    /**
+     * First half of {@link #reset(User)}: opens a cursor over the post index of every
+     * followed user that has posts. The feed is unusable until {@link #buildHeap()}.
+     *
+     * @param viewer the user whose feed is being produced
+     */
+    void collect(User viewer) {
+        this.viewer = viewer;
+        this.scanned = 0;
+        this.seenSkipped = 0;
+        this.heapOperations = 0;
+
+        MyIntHashMap followedUsers = viewer.followedUsers;
+        if (cursors.length < followedUsers.size() + 1) {
+            cursors = new PostIndex.Cursor[followedUsers.size() + 1];
+            PostIndex.Cursor[] newSpares = new PostIndex.Cursor[followedUsers.size() + 1];
+            System.arraycopy(spareCursors, 0, newSpares, 0, spareCursors.length);
+            spareCursors = newSpares;
+        }
+        this.size = 0;
+
+        // Open a cursor for every followed user that has posts the viewer may not have seen;
+        // the slots are walked in place so that no array of followed users is copied
+        for (int slot = 0, slots = followedUsers.slotCount(); slot < slots; slot++) {
+            User followedUser = (User) followedUsers.valueAt(slot);
+            if (followedUser != null && !followedUser.postIndex.isEmpty()
+                    && !viewer.hasSeenAllPostsOf(followedUser)) {
+                size = size + 1;
+                if (spareCursors[size] == null) {
+                    spareCursors[size] = new PostIndex.Cursor();
+                }
+                cursors[size] = spareCursors[size];
+                cursors[size].reset(followedUser.postIndex);
+            }
+        }
+    }
+
+    /**
+     * Second half of {@link #reset(User)}: orders the collected cursors into a heap.
+     */
+    void buildHeap() {
+        // Build the cursor heap bottom-up
+        for (int index = size / 2; index >= 1; index--) {
+            percolateDown(index);
+        }
+    }
+
+    /**
+     * Checks whether the feed has another unseen post.
+     *
+     * @return true if next() would return a post, false otherwise
+     */
+    public boolean hasNext() {
+        skipSeenPosts();
+        return size > 0;
+    }
+
+    /**
+     * Returns the next unseen post of the feed.
+     *
+     * @return the next post, or null if the feed is exhausted
+     */
+    public Post next() {
+        skipSeenPosts();
+        if (size == 0) {
+            return null;
+        }
+        return advance();
+    }
+
+    /**
+     * Drops posts the viewer has already seen from the front of the feed.
+     */
+    private void skipSeenPosts() {
+        while (size > 0 && viewer.hasSeenPost(cursors[1].peek())) {
+            advance();
+            seenSkipped++;
+        }
+    }
+
+    /**
+     * Gets the number of cursors the current feed started with: the followed users that
+     * had posts.
+     *
+     * @return the number of cursors, until the first post is taken
+     */
+    int cursorCount() {
+        return size;
+    }
+
+    /**
+     * Gets the number of candidate posts taken off the cursors for the current feed, both
+     * returned and skipped as seen.
+     *
+     * @return the number of scanned posts
+     */
+    public int scanned() {
+        return scanned;
+    }
+
+    /**
+     * Gets the number of posts of the current feed skipped because the viewer had seen them.
+     *
+     * @return the number of seen posts filtered out
+     */
+    public int seenSkipped() {
+        return seenSkipped;
+    }
+
+    /**
+     * Gets the number of sift-downs of the cursor heap for the current feed, including
+     * those of building the heap.
+     *
+     * @return the number of heap operations
+     */
+    public int heapOperations() {
+        return heapOperations;
+    }
+
+    /**
+     * Takes the post at the front of the merged cursors and moves that cursor forward.
+     *
+     * @return the post at the front of the feed
+     */
+    private Post advance() {
+        PostIndex.Cursor cursor = cursors[1];
+        Post post = cursor.next();
+        scanned++;
+
+        if (cursor.peek() == null) {
+            // The cursor is exhausted, replace it with the last one
+            cursors[1] = cursors[size];
+            cursors[size] = null;
+            size = size - 1;
+        }
+
+        if (size > 0) {
+            percolateDown(1);
+        }
+        return post;
+    }
+
+    /**
+     * Moves a cursor down the heap to restore the max-heap property.
+     *
+     * @param index the index of the cursor to percolate down
+     */
+    private void percolateDown(int index) {
+        heapOperations++;
+        PostIndex.Cursor cursor = cursors[index];
+        while (2 * index <= size) {
+            int child = 2 * index;
+
+            // Pick the cursor pointing at the larger post
+            if (child + 1 <= size
+                    && MyMaxHeap.compare(cursors[child + 1].peek(), cursors[child].peek()) > 0) {
+                child = child + 1;
+            }
+
+            if (MyMaxHeap.compare(cursors[child].peek(), cursor.peek()) <= 0) {
+                break;
+            }
+
+            cursors[index] = cursors[child];
+            index = child;
+        }
+        cursors[index] = cursor;
+    }
+}
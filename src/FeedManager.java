@@ -1,36 +1,244 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
  * Manages all operations related to users, posts, and feeds in the Instagram Feed Manager system.
  * This class handles user creation, following/unfollowing, post management, and feed generation.
+ * String IDs are only used to look users and posts up here; every user and post also gets a
+ * dense number, and all relations between them are kept by number.
+ * IDs are passed in as character sequences, so callers can look up with views of their input;
+ * a String is only created for an ID that gets stored, and messages use the stored IDs.
+ * Result messages are written fragment by fragment into an {@link OutputSink}; every
+ * command writes exactly one message and the caller ends the line.
+ * Every command first looks its users and posts up and then runs on the objects, so
+ * {@link ConcurrentFeedManager} can lock exactly the objects a command touches; users and
+ * posts are only found and added through package-private methods, so it can also keep
+ * them in maps of its own.
+ * Feeds only read shared state, so {@link #generateFeeds} produces the feeds of many users
+ * on a fork-join pool.
  */
 public class FeedManager {
+    // Most feeds generated by one task of generateFeeds
+    private static final int FEEDS_PER_TASK = 16;
+
+    // Reusable feed iterator and output buffer of every thread generating feeds in parallel
+    private static final ThreadLocal<FeedWorker> FEED_WORKERS = ThreadLocal.withInitial(FeedWorker::new);
+
     // Stores all users in the system (userId -> User object)
     MyHashMap allUsers;
 
-    // Stores all posts in the system (postId -> Post object)
+    // Stores all posts in the system (postId -> first Post object with that ID; posts of
+    // other authors with the same ID are chained behind it)
     MyHashMap allPosts;
 
+    // Number of users and posts created so far (numbering starts from 1)
+    int userCount;
+    int postCount;
+
+    // Command latencies and feed counters
+    final FeedMetrics metrics = new FeedMetrics();
+
     /**
      * Constructs a FeedManager and initializes storage for users and posts.
+     * Both maps grow incrementally, so no single command pays for moving the whole table.
      */
     public FeedManager() {
-        this.allUsers = new MyHashMap(100);
-        this.allPosts = new MyHashMap(100);
+        this(new MyHashMap(100, true), new MyHashMap(100, true));
+    }
+
+    /**
+     * Constructs a FeedManager over the given user and post maps. A subclass that keeps
+     * users and posts in maps of its own passes null for both, so none are allocated, and
+     * must then override every method that reads {@code allUsers} or {@code allPosts}.
+     *
+     * @param allUsers the map of users by ID, or null
+     * @param allPosts the map of posts by ID, or null
+     */
+    protected FeedManager(MyHashMap allUsers, MyHashMap allPosts) {
+        this.allUsers = allUsers;
+        this.allPosts = allPosts;
+    }
+
+    /**
+     * Gets the instrumentation of this FeedManager.
+     *
+     * @return the metrics, live: they keep recording
+     */
+    public FeedMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Writes a summary of the metrics and of the user and post tables.
+     *
+     * @param out the stream receiving the report
+     */
+    public void reportMetrics(PrintStream out) {
+        metrics.report(out);
+        reportTables(out);
+    }
+
+    /**
+     * Writes the probe statistics of the user and post tables.
+     *
+     * @param out the stream receiving the report
+     */
+    void reportTables(PrintStream out) {
+        FeedMetrics.reportTable(out, "users", this.allUsers);
+        FeedMetrics.reportTable(out, "posts", this.allPosts);
+    }
+
+    /**
+     * Gets the number of times the user and post tables have been rehashed, to tell
+     * whether a slow command paid for growing a table.
+     *
+     * @return the number of rehashes so far
+     */
+    long rehashCount() {
+        return (long) this.allUsers.rehashCount() + this.allPosts.rehashCount();
+    }
+
+    /**
+     * Looks a user up by ID.
+     *
+     * @param userId the ID of the user
+     * @return the user, or null if there is no such user
+     */
+    User findUser(CharSequence userId) {
+        return (User) this.allUsers.find(userId);
+    }
+
+    /**
+     * Looks a post up by ID.
+     *
+     * @param postId the ID of the post
+     * @return the post, or null if there is no such post
+     */
+    Post findPost(CharSequence postId) {
+        return (Post) this.allPosts.find(postId);
+    }
+
+    /**
+     * Gets every user, indexed by number. Numbers without a user hold null.
+     *
+     * @return an array of length (largest user number + 1)
+     */
+    User[] usersByNumber() {
+        User[] users = new User[this.userCount + 1];
+        for (Object value : this.allUsers.values()) {
+            users[((User) value).id] = (User) value;
+        }
+        return users;
+    }
+
+    /**
+     * Gets every post, indexed by number. Numbers without a post hold null.
+     *
+     * @return an array of length (largest post number + 1)
+     */
+    Post[] postsByNumber() {
+        Post[] posts = new Post[this.postCount + 1];
+        for (Object value : this.allPosts.values()) {
+            for (Post post = (Post) value; post != null; post = post.nextWithId) {
+                posts[post.id] = post;
+            }
+        }
+        return posts;
+    }
+
+    /**
+     * Makes room for restoring users and posts into an empty FeedManager, so the maps
+     * never resize while a snapshot is loaded.
+     *
+     * @param users the number of users to be restored
+     * @param posts the number of posts to be restored
+     */
+    void reserve(int users, int posts) {
+        this.allUsers = new MyHashMap(users, true);
+        this.allPosts = new MyHashMap(posts, true);
+    }
+
+    /**
+     * Adds a user read from a snapshot, keeping its number.
+     *
+     * @param user the user to add
+     */
+    void restoreUser(User user) {
+        this.allUsers.insert(user.userId, user);
+        this.userCount = Math.max(this.userCount, user.id);
+    }
+
+    /**
+     * Adds a post read from a snapshot, keeping its number.
+     *
+     * @param post the post to add
+     */
+    void restorePost(Post post) {
+        Post first = (Post) this.allPosts.find(post.postId);
+        if (first == null) {
+            this.allPosts.insert(post.postId, post);
+        } else {
+            first.chain(post);
+        }
+        this.postCount = Math.max(this.postCount, post.id);
     }
 
     /**
      * Creates a new user with a unique ID.
      *
      * @param userId the unique identifier for the user
-     * @return a message indicating success or an error
+     * @param out    the sink receiving a message indicating success or an error
+     */
+    public void createUser(CharSequence userId, OutputSink out) {
+        User user = addUser(userId); // Create and register a new user
+        if (user == null) {
+            out.append("Some error occurred in create_user."); // User already exists
+        } else {
+            out.append("Created user with Id ").append(user.userId).append('.'); // Success message
+        }
+    }
+
+    /**
+     * Creates a user and adds it to the system, unless the ID is taken.
+     *
+     * @param userId the unique identifier for the user
+     * @return the new user, or null if a user with that ID exists
      */
-    public String createUser(String userId) {
+    User addUser(CharSequence userId) {
         if (this.allUsers.contains(userId)) {
-            return "Some error occurred in create_user."; // User already exists
+            return null;
+        }
+        User user = new User(++this.userCount, userId.toString());
+        this.allUsers.insert(user.userId, user);
+        return user;
+    }
+
+    /**
+     * Creates a post and adds it to the system, unless the author already has a post with
+     * that ID. A post whose ID another author uses is chained behind that author's post.
+     * The post is not yet in its author's posts.
+     *
+     * @param author  the user creating the post
+     * @param postId  the identifier for the post, unique among the author's posts
+     * @param content the content of the post
+     * @return the new post, or null if the author has a post with that ID
+     */
+    Post addPost(User author, CharSequence postId, CharSequence content) {
+        Post first = (Post) this.allPosts.find(postId);
+        if (first != null && first.findByAuthor(author) != null) {
+            return null;
+        }
+        Post post = new Post(++this.postCount, postId.toString(), author, content.toString());
+        if (first == null) {
+            this.allPosts.insert(post.postId, post);
         } else {
-            User user = new User(userId); // Create a new user
-            this.allUsers.insert(userId, user); // Add user to the system
-            return ("Created user with Id " + userId + "."); // Success message
+            first.chain(post);
         }
+        return post;
     }
 
     /**
@@ -38,19 +246,30 @@ public class FeedManager {
      *
      * @param userId         the ID of the user initiating the follow
      * @param userIdToFollow the ID of the user to be followed
-     * @return a message indicating success or an error
+     * @param out            the sink receiving a message indicating success or an error
      */
-    public String followUser(String userId, String userIdToFollow) {
-        User user = (User) this.allUsers.find(userId); // Get the user initiating the follow
-        User userToFollow = (User) this.allUsers.find(userIdToFollow); // Get the user to be followed
+    public void followUser(CharSequence userId, CharSequence userIdToFollow, OutputSink out) {
+        User user = findUser(userId); // Get the user initiating the follow
+        User userToFollow = findUser(userIdToFollow); // Get the user to be followed
+        followUser(user, userToFollow, out);
+    }
 
+    /**
+     * Allows one looked-up user to follow another.
+     *
+     * @param user         the user initiating the follow, or null if not found
+     * @param userToFollow the user to be followed, or null if not found
+     * @param out          the sink receiving a message indicating success or an error
+     */
+    void followUser(User user, User userToFollow, OutputSink out) {
         if (user != null && userToFollow != null) {
-            if (!userId.equals(userIdToFollow) && !user.followedUsers.contains(userIdToFollow)) {
-                user.follow(userIdToFollow, userToFollow); // Establish follow relationship
-                return userId + " followed " + userIdToFollow + "."; // Success message
+            if (user != userToFollow && !user.isFriendsWith(userToFollow)) {
+                user.follow(userToFollow); // Establish follow relationship
+                out.append(user.userId).append(" followed ").append(userToFollow.userId).append('.'); // Success message
+                return;
             }
         }
-        return "Some error occurred in follow_user."; // Error if invalid conditions
+        out.append("Some error occurred in follow_user."); // Error if invalid conditions
     }
 
     /**
@@ -58,19 +277,30 @@ public class FeedManager {
      *
      * @param userId           the ID of the user initiating the unfollow
      * @param userIdToUnfollow the ID of the user to be unfollowed
-     * @return a message indicating success or an error
+     * @param out              the sink receiving a message indicating success or an error
      */
-    public String unfollowUser(String userId, String userIdToUnfollow) {
-        User user = (User) this.allUsers.find(userId); // Get the user initiating the unfollow
-        User userToUnfollow = (User) this.allUsers.find(userIdToUnfollow); // Get the user to be unfollowed
+    public void unfollowUser(CharSequence userId, CharSequence userIdToUnfollow, OutputSink out) {
+        User user = findUser(userId); // Get the user initiating the unfollow
+        User userToUnfollow = findUser(userIdToUnfollow); // Get the user to be unfollowed
+        unfollowUser(user, userToUnfollow, out);
+    }
 
+    /**
+     * Allows one looked-up user to unfollow another.
+     *
+     * @param user           the user initiating the unfollow, or null if not found
+     * @param userToUnfollow the user to be unfollowed, or null if not found
+     * @param out            the sink receiving a message indicating success or an error
+     */
+    void unfollowUser(User user, User userToUnfollow, OutputSink out) {
         if (user != null && userToUnfollow != null) {
-            if (!userId.equals(userIdToUnfollow) && user.followedUsers.contains(userIdToUnfollow)) {
+            if (user != userToUnfollow && user.isFriendsWith(userToUnfollow)) {
                 user.unfollow(userToUnfollow); // Remove follow relationship
-                return userId + " unfollowed " + userIdToUnfollow + "."; // Success message
+                out.append(user.userId).append(" unfollowed ").append(userToUnfollow.userId).append('.'); // Success message
+                return;
             }
         }
-        return "Some error occurred in unfollow_user."; // Error if invalid conditions
+        out.append("Some error occurred in unfollow_user."); // Error if invalid conditions
     }
 
     /**
@@ -79,20 +309,29 @@ public class FeedManager {
      * @param userId  the ID of the user creating the post
      * @param postId  the unique identifier for the post
      * @param content the content of the post
-     * @return a message indicating success or an error
+     * @param out     the sink receiving a message indicating success or an error
      */
-    public String createPost(String userId, String postId, String content) {
-        User user = (User) this.allUsers.find(userId); // Get the user creating the post
+    public void createPost(CharSequence userId, CharSequence postId, CharSequence content, OutputSink out) {
+        createPost(findUser(userId), postId, content, out); // Get the user creating the post
+    }
 
-        if (user != null && !user.posts.contains(postId)) {
-            Post post = new Post(postId, user, content); // Create a new post
+    /**
+     * Allows a looked-up user to create a post.
+     *
+     * @param user    the user creating the post, or null if not found
+     * @param postId  the identifier for the post, unique among the author's posts
+     * @param content the content of the post
+     * @param out     the sink receiving a message indicating success or an error
+     */
+    void createPost(User user, CharSequence postId, CharSequence content, OutputSink out) {
+        Post post = user != null ? addPost(user, postId, content) : null; // Create and register a new post
+        if (post != null) {
             user.createPost(post); // Add post to user's list
-            this.allPosts.insert(postId, post); // Add post to global list
-            user.posts.insert(postId, post); // Add post to user's post map
-            user.seenPosts.insert(postId, post); // Mark as seen by creator
-            return userId + " created a post with Id " + postId + "."; // Success message
+            user.markPostAsSeen(post); // Mark as seen by creator
+            out.append(user.userId).append(" created a post with Id ").append(post.postId).append('.'); // Success message
+            return;
         }
-        return "Some error occurred in create_post."; // Error if invalid conditions
+        out.append("Some error occurred in create_post."); // Error if invalid conditions
     }
 
     /**
@@ -100,20 +339,30 @@ public class FeedManager {
      *
      * @param userId the ID of the user viewing the post
      * @param postId the ID of the post being viewed
-     * @return a message indicating success or an error
+     * @param out    the sink receiving a message indicating success or an error
      */
-    public String seePost(String userId, String postId) {
-        User user = (User) this.allUsers.find(userId); // Get the user viewing the post
-        Post post = (Post) this.allPosts.find(postId); // Get the post being viewed
+    public void seePost(CharSequence userId, CharSequence postId, OutputSink out) {
+        User user = findUser(userId); // Get the user viewing the post
+        Post post = findPost(postId); // Get the post being viewed
+        seePost(user, post, out);
+    }
 
+    /**
+     * Marks a looked-up post as seen by a looked-up user.
+     *
+     * @param user the user viewing the post, or null if not found
+     * @param post the post being viewed, or null if not found
+     * @param out  the sink receiving a message indicating success or an error
+     */
+    void seePost(User user, Post post, OutputSink out) {
         if (user != null && post != null) {
             if (!user.hasSeenPost(post)) {
                 user.markPostAsSeen(post); // Mark post as seen
-                user.seenPosts.insert(postId, post); // Add to seen posts
             }
-            return userId + " saw " + postId + "."; // Success message
+            out.append(user.userId).append(" saw ").append(post.postId).append('.'); // Success message
+            return;
         }
-        return "Some error occurred in see_post."; // Error if invalid conditions
+        out.append("Some error occurred in see_post."); // Error if invalid conditions
     }
 
     /**
@@ -121,22 +370,28 @@ public class FeedManager {
      *
      * @param viewerId the ID of the user viewing the posts
      * @param viewedId the ID of the user whose posts are being viewed
-     * @return a message indicating success or an error
+     * @param out      the sink receiving a message indicating success or an error
      */
-    public String seeAllPostsFromUser(String viewerId, String viewedId) {
-        User viewer = (User) this.allUsers.find(viewerId); // Get the viewing user
-        User viewed = (User) this.allUsers.find(viewedId); // Get the user whose posts are viewed
+    public void seeAllPostsFromUser(CharSequence viewerId, CharSequence viewedId, OutputSink out) {
+        User viewer = findUser(viewerId); // Get the viewing user
+        User viewed = findUser(viewedId); // Get the user whose posts are viewed
+        seeAllPostsFromUser(viewer, viewed, out);
+    }
 
+    /**
+     * Marks all posts of one looked-up user as seen by another.
+     *
+     * @param viewer the user viewing the posts, or null if not found
+     * @param viewed the user whose posts are being viewed, or null if not found
+     * @param out    the sink receiving a message indicating success or an error
+     */
+    void seeAllPostsFromUser(User viewer, User viewed, OutputSink out) {
         if (viewer != null && viewed != null) {
-            for (String postId : viewed.posts.keys()) {
-                Post post = (Post) viewed.posts.find(postId); // Get each post
-                if (post != null && !viewer.hasSeenPost(post)) {
-                    viewer.markPostAsSeen(post); // Mark post as seen
-                }
-            }
-            return viewerId + " saw all posts of " + viewedId + "."; // Success message
+            viewer.markAllPostsAsSeen(viewed); // Mark all posts as seen at once
+            out.append(viewer.userId).append(" saw all posts of ").append(viewed.userId).append('.'); // Success message
+            return;
         }
-        return "Some error occurred in see_all_posts_from_user."; // Error if invalid conditions
+        out.append("Some error occurred in see_all_posts_from_user."); // Error if invalid conditions
     }
 
     /**
@@ -144,72 +399,155 @@ public class FeedManager {
      *
      * @param userId the ID of the user liking/unliking the post
      * @param postId the ID of the post being liked/unliked
-     * @return a message indicating success or an error
+     * @param out    the sink receiving a message indicating success or an error
      */
-    public String toggleLike(String userId, String postId) {
-        User user = (User) this.allUsers.find(userId); // Get the user toggling like
-        Post post = (Post) this.allPosts.find(postId); // Get the post being liked/unliked
+    public void toggleLike(CharSequence userId, CharSequence postId, OutputSink out) {
+        User user = findUser(userId); // Get the user toggling like
+        Post post = findPost(postId); // Get the post being liked/unliked
+        toggleLike(user, post, out);
+    }
 
+    /**
+     * Toggles the like status of a looked-up post for a looked-up user.
+     *
+     * @param user the user liking/unliking the post, or null if not found
+     * @param post the post being liked/unliked, or null if not found
+     * @param out  the sink receiving a message indicating success or an error
+     */
+    void toggleLike(User user, Post post, OutputSink out) {
         if (user != null && post != null) {
-            return user.toggleLike(postId, post); // Toggle the like status
+            boolean liked = user.toggleLike(post); // Toggle the like status
+            out.append(user.userId).append(liked ? " liked " : " unliked ").append(post.postId).append('.');
+            return;
         }
-        return "Some error occurred in toggle_like."; // Error if invalid conditions
+        out.append("Some error occurred in toggle_like."); // Error if invalid conditions
     }
 
     /**
      * Generates a feed for a user based on unseen posts from followed users.
+     * Every line after the first starts with a line break, so the log needs no trimming.
      *
      * @param userId the ID of the user requesting the feed
      * @param num    the maximum number of posts in the feed
-     * @return an array containing the feed log and feed data
+     * @param out    the sink receiving the feed log
+     */
+    public void generateFeed(CharSequence userId, int num, OutputSink out) {
+        generateFeed(findUser(userId), num, out); // Get the user requesting the feed
+    }
+
+    /**
+     * Generates a feed for a looked-up user.
+     *
+     * @param user the user requesting the feed, or null if not found
+     * @param num  the maximum number of posts in the feed
+     * @param out  the sink receiving the feed log
      */
-    public Object[] generateFeed(String userId, int num) {
-        User user = (User) allUsers.find(userId); // Get the user requesting the feed
+    void generateFeed(User user, int num, OutputSink out) {
+        generateFeed(user, num, out, null);
+    }
 
+    /**
+     * Generates a feed for a looked-up user with a reusable feed iterator.
+     *
+     * @param user the user requesting the feed, or null if not found
+     * @param num  the maximum number of posts in the feed
+     * @param out  the sink receiving the feed log
+     * @param feed the iterator to reset for the feed, or null to create one
+     */
+    void generateFeed(User user, int num, OutputSink out, FeedIterator feed) {
         if (user == null) {
-            return new Object[]{"Some error occurred in generate_feed.", null, 0};
+            out.append("Some error occurred in generate_feed.");
+            return;
         }
 
-        StringBuilder log = new StringBuilder();
-        log.append("Feed for ").append(userId).append(":\n");
-
-        MyMaxHeap feedHeap = new MyMaxHeap(10); // Temporary heap for feed posts
-        MyMaxHeap secondHeap = new MyMaxHeap(10); // Backup heap for additional operations
-        int postCount = 0;
-
-        for (String followedUserId : user.followedUsers.keys()) {
-            if (followedUserId == null) continue;
+        out.append("Feed for ").append(user.userId).append(':');
 
-            User followedUser = (User) allUsers.find(followedUserId); // Get each followed user
-
-            if (followedUser == null) continue;
-
-            for (String postId : followedUser.posts.keys()) {
-                Post post = (Post) followedUser.posts.find(postId); // Get each post
-
-                if (post != null && !user.hasSeenPost(post)) {
-                    feedHeap.insert(post); // Add post to the heap
-                    secondHeap.insert(post); // Add post to backup heap
-                    postCount++;
-                }
-            }
+        // Unseen posts in feed order
+        FeedTrace trace = FeedTrace.start("generate_feed", user);
+        if (feed == null) {
+            feed = new FeedIterator();
         }
-
+        startFeed(feed, user, trace);
         int count = 0;
-        while (!feedHeap.isEmpty() && count < num) {
-            Post post = feedHeap.extractMax(); // Get the highest priority post
-            log.append("Post ID: ").append(post.postId)
+        while (count < num) {
+            if (trace != null) {
+                trace.lap(FeedTrace.FORMATTING);
+            }
+            Post post = feed.next(); // Get the highest priority post
+            if (trace != null) {
+                trace.lap(FeedTrace.EXTRACTION);
+            }
+            if (post == null) {
+                break;
+            }
+            out.append("\nPost ID: ").append(post.postId)
                     .append(", Author: ").append(post.author.userId)
-                    .append(", Likes: ").append(post.likeCount).append("\n");
+                    .append(", Likes: ").append(post.likeCount);
             count++;
         }
+        if (FeedMetrics.ENABLED) {
+            metrics.recordFeed(feed, count);
+        }
 
         if (count < num) {
-            log.append("No more posts available for ").append(userId).append(".");
-            return new Object[]{log.toString(), secondHeap, postCount};
+            out.append("\nNo more posts available for ").append(user.userId).append('.');
+        }
+        if (trace != null) {
+            trace.finish(feed, count);
+        }
+    }
+
+    /**
+     * Starts a feed iterator on the feed of a user, timing its phases if the feed is traced.
+     *
+     * @param feed  the iterator to reset
+     * @param user  the user whose feed is produced
+     * @param trace the trace of the feed, or null if it is not traced
+     */
+    private static void startFeed(FeedIterator feed, User user, FeedTrace trace) {
+        if (trace == null) {
+            feed.reset(user);
+            return;
+        }
+        feed.collect(user);
+        trace.collected(feed);
+        feed.buildHeap();
+        trace.lap(FeedTrace.HEAP_BUILD);
+    }
+
+    /**
+     * Generates the feeds of many users in parallel on the common fork-join pool.
+     * The log equals that of one generate_feed per user in the given order, with the feeds
+     * separated by line breaks.
+     *
+     * @param userIds the IDs of the users requesting feeds
+     * @param num     the maximum number of posts in every feed
+     * @param out     the sink receiving the feed logs
+     */
+    public void generateFeeds(CharSequence[] userIds, int num, OutputSink out) {
+        generateFeeds(userIds, num, out, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Generates the feeds of many users in parallel on a given fork-join pool.
+     * The users are looked up first; the pool then splits them into ranges of at most
+     * {@link #FEEDS_PER_TASK} users, and every range is written into the reusable buffer of
+     * the thread that runs it. The ranges are appended to the sink in order.
+     *
+     * @param userIds the IDs of the users requesting feeds
+     * @param num     the maximum number of posts in every feed
+     * @param out     the sink receiving the feed logs
+     * @param pool    the pool generating the feeds
+     */
+    void generateFeeds(CharSequence[] userIds, int num, OutputSink out, ForkJoinPool pool) {
+        User[] users = new User[userIds.length];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = findUser(userIds[i]);
         }
 
-        return new Object[]{log.substring(0, log.toString().length() - 1), secondHeap, postCount};
+        FeedTask task = new FeedTask(users, 0, users.length, num);
+        pool.invoke(task);
+        task.writeTo(out);
     }
 
     /**
@@ -219,95 +557,201 @@ public class FeedManager {
      * @param userId    the ID of the user scrolling through the feed
      * @param num       the number of posts to scroll through
      * @param likeFlags an array indicating whether the user likes each post (1 for like, 0 for skip)
-     * @return a log of the scrolling activity
+     * @param out       the sink receiving the log of the scrolling activity
      */
-    public String scrollThroughFeed(String userId, int num, int[] likeFlags) {
-        User user = (User) allUsers.find(userId); // Find the user requesting the feed
+    public void scrollThroughFeed(CharSequence userId, int num, int[] likeFlags, OutputSink out) {
+        scrollThroughFeed(findUser(userId), num, likeFlags, out); // Find the user requesting the feed
+    }
 
+    /**
+     * Simulates scrolling through the feed for a looked-up user.
+     *
+     * @param user      the user scrolling through the feed, or null if not found
+     * @param num       the number of posts to scroll through
+     * @param likeFlags an array indicating whether the user likes each post (1 for like, 0 for skip)
+     * @param out       the sink receiving the log of the scrolling activity
+     */
+    void scrollThroughFeed(User user, int num, int[] likeFlags, OutputSink out) {
         if (user == null) {
-            return "Some error occurred in scroll_through_feed."; // Return error if user not found
+            out.append("Some error occurred in scroll_through_feed."); // Error if user not found
+            return;
         }
 
-        StringBuilder log = new StringBuilder();
-        log.append(userId).append(" is scrolling through feed:\n");
+        out.append(user.userId).append(" is scrolling through feed:");
 
-        // Generate the feed for the user
-        Object[] objects = generateFeed(userId, num);
+        FeedTrace trace = FeedTrace.start("scroll_through_feed", user);
+        FeedIterator feed = new FeedIterator(); // Unseen posts in feed order
+        startFeed(feed, user, trace);
 
-        MyMaxHeap feed = (MyMaxHeap) objects[1]; // Retrieve the feed heap
-        feed.setSize((int) objects[2]); // Set the size of the heap
-
-        if (feed.isEmpty()) {
-            log.append("No more posts in feed."); // Handle empty feed case
-            return log.toString();
+        boolean empty = !feed.hasNext();
+        if (trace != null) {
+            trace.lap(FeedTrace.EXTRACTION);
+        }
+        if (empty) {
+            if (FeedMetrics.ENABLED) {
+                metrics.recordFeed(feed, 0);
+            }
+            out.append("\nNo more posts in feed."); // Handle empty feed case
+            if (trace != null) {
+                trace.finish(feed, 0);
+            }
+            return;
         }
 
+        // The whole scroll is read before any post is marked seen: seeing a post also hides
+        // other authors' posts with the same ID, and likes re-order the authors' post indexes
+        Post[] scrolled = new Post[Math.max(0, num)];
         int count = 0;
-
-        // Process the feed posts based on the like flags
-        for (int i = 0; i < num; i++) {
-            Post post = feed.extractMax(); // Extract the highest-priority post
+        while (count < num) {
+            Post post = feed.next(); // Take the next post of the feed
 
             if (post == null) {
                 break; // Exit if no more posts
             }
+            scrolled[count++] = post;
+        }
+        if (trace != null) {
+            trace.lap(FeedTrace.EXTRACTION);
+        }
 
+        // Process the feed posts based on the like flags
+        for (int i = 0; i < count; i++) {
+            Post post = scrolled[i];
             user.markPostAsSeen(post); // Mark the post as seen by the user
-            count++;
-
             if (likeFlags[i] == 1) { // If the user likes the post
-                user.toggleLike(post.postId, post); // Toggle like for the post
-                log.append(userId).append(" saw ").append(post.postId)
-                        .append(" while scrolling and clicked the like button.\n");
+                user.toggleLike(post); // Toggle like for the post
+            }
+            if (trace != null) {
+                trace.lap(FeedTrace.EXTRACTION);
+            }
+
+            out.append('\n').append(user.userId).append(" saw ").append(post.postId);
+            if (likeFlags[i] == 1) {
+                out.append(" while scrolling and clicked the like button.");
             } else { // If the user skips liking the post
-                log.append(userId).append(" saw ").append(post.postId)
-                        .append(" while scrolling.\n");
+                out.append(" while scrolling.");
+            }
+            if (trace != null) {
+                trace.lap(FeedTrace.FORMATTING);
             }
         }
 
-        if (count < num) { // If fewer posts were processed than requested
-            log.append("No more posts in feed.");
-            return log.toString();
+        if (FeedMetrics.ENABLED) {
+            metrics.recordFeed(feed, count);
         }
 
-        return log.substring(0, log.toString().length() - 1); // Return the scrolling log
+        if (count < num) { // If fewer posts were processed than requested
+            out.append("\nNo more posts in feed.");
+        }
+        if (trace != null) {
+            trace.finish(feed, count);
+        }
     }
 
     /**
      * Sorts a user's posts by likes in descending order.
      *
      * @param userId the ID of the user whose posts are to be sorted
-     * @return a formatted string of sorted posts
+     * @param out    the sink receiving the sorted posts
      */
-    public String sortPosts(String userId) {
-        User user = (User) allUsers.find(userId); // Find the user whose posts are to be sorted
+    public void sortPosts(CharSequence userId, OutputSink out) {
+        sortPosts(findUser(userId), out); // Find the user whose posts are to be sorted
+    }
 
+    /**
+     * Sorts the posts of a looked-up user by likes in descending order.
+     *
+     * @param user the user whose posts are to be sorted, or null if not found
+     * @param out  the sink receiving the sorted posts
+     */
+    void sortPosts(User user, OutputSink out) {
         if (user == null) {
-            return "Some error occurred in sort_posts."; // Return error if user not found
+            out.append("Some error occurred in sort_posts."); // Error if user not found
+            return;
         }
 
-        StringBuilder log = new StringBuilder();
-        log.append("Sorting ").append(userId).append("'s posts").append(":\n");
+        out.append("Sorting ").append(user.userId).append("'s posts:");
 
-        MyMaxHeap postHeap = new MyMaxHeap(10); // Temporary heap to sort posts
+        // Walk the user's post index, which is already ordered by likes
+        PostIndex.Cursor cursor = user.postIndex.cursor();
+        for (Post post = cursor.next(); post != null; post = cursor.next()) {
+            out.append('\n').append(post.postId) // Append post details
+                    .append(", Likes: ").append(post.likeCount);
+        }
+    }
 
-        // Add all posts to the heap
-        for (String postId : user.posts.keys()) {
-            if (postId == null) {
-                continue; // Skip null entries
-            }
-            Post post = (Post) user.posts.find(postId); // Retrieve the post
-            postHeap.insert(post); // Add post to the heap
+    /**
+     * Scratch state of one thread generating feeds: a feed iterator and an output buffer,
+     * both reused by every range the thread runs.
+     */
+    private static class FeedWorker {
+        private final FeedIterator feed = new FeedIterator();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 12);
+        private final OutputSink out = new OutputSink(bytes, 1 << 12);
+    }
+
+    /**
+     * Generates the feeds of a range of users, splitting it in halves until a range is
+     * small enough to run directly.
+     */
+    private class FeedTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final User[] users;
+        private final int from;
+        private final int to;
+        private final int num;
+
+        // Halves of a split range, or the feed logs of a range that ran directly
+        private FeedTask left;
+        private FeedTask right;
+        private byte[] result;
+
+        FeedTask(User[] users, int from, int to, int num) {
+            this.users = users;
+            this.from = from;
+            this.to = to;
+            this.num = num;
         }
 
-        // Extract posts from the heap in descending order
-        while (!postHeap.isEmpty()) {
-            Post post = postHeap.extractMax(); // Get the highest-priority post
-            log.append(post.postId) // Append post details to the log
-                    .append(", Likes: ").append(post.likeCount).append("\n");
+        @Override
+        protected void compute() {
+            if (to - from > FEEDS_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                left = new FeedTask(users, from, middle, num);
+                right = new FeedTask(users, middle, to, num);
+                invokeAll(left, right);
+                return;
+            }
+
+            FeedWorker worker = FEED_WORKERS.get();
+            worker.bytes.reset();
+            for (int i = from; i < to; i++) {
+                if (i > 0) {
+                    worker.out.newLine();
+                }
+                generateFeed(users[i], num, worker.out, worker.feed);
+            }
+            try {
+                worker.out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e); // Not thrown by a byte array stream
+            }
+            result = worker.bytes.toByteArray();
         }
 
-        return log.substring(0, log.toString().length() - 1); // Return the sorted posts log
+        /**
+         * Appends the feed logs of the range in order.
+         *
+         * @param out the sink receiving the logs
+         */
+        void writeTo(OutputSink out) {
+            if (result != null) {
+                out.append(result, 0, result.length);
+            } else if (left != null) {
+                left.writeTo(out);
+                right.writeTo(out);
+            }
+        }
     }
 }
-
@@ -0,0 +1,169 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of one FeedManager: a latency histogram per command type, recorded by
+ * every {@link FileHandler} that runs commands against it, and counters of the work done
+ * by feeds (generate_feed, generate_feeds and scroll_through_feed).
+ *
+ * Recording takes no locks, so the handlers of all {@link CommandServer} connections can
+ * share one instance; counters are added once per feed, not per post. Recording is on by
+ * default and is turned off with {@code -Dfeed.metrics=false}, which leaves the timing
+ * calls out of the compiled code.
+ */
+public class FeedMetrics {
+    // Whether commands and feeds are recorded
+    static final boolean ENABLED = !"false".equalsIgnoreCase(System.getProperty("feed.metrics"));
+
+    // Latencies of every command type, indexed by command code
+    private final LatencyHistogram[] commands = new LatencyHistogram[CommandBatch.COMMAND_COUNT];
+
+    private final LongAdder feeds = new LongAdder();
+    private final LongAdder feedPosts = new LongAdder();
+    private final LongAdder candidatesScanned = new LongAdder();
+    private final LongAdder seenFiltered = new LongAdder();
+    private final LongAdder heapOperations = new LongAdder();
+
+    /**
+     * Constructs empty metrics.
+     */
+    public FeedMetrics() {
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records the latency of one command.
+     *
+     * @param code  the command code
+     * @param nanos the time the command took, in nanoseconds
+     */
+    public void recordCommand(int code, long nanos) {
+        if (code >= 0 && code < commands.length) {
+            commands[code].record(nanos);
+        }
+    }
+
+    /**
+     * Records the work of one feed.
+     *
+     * @param feed  the iterator that produced the feed
+     * @param posts the number of posts the feed returned
+     */
+    void recordFeed(FeedIterator feed, int posts) {
+        feeds.increment();
+        feedPosts.add(posts);
+        candidatesScanned.add(feed.scanned());
+        seenFiltered.add(feed.seenSkipped());
+        heapOperations.add(feed.heapOperations());
+    }
+
+    /**
+     * Gets the latencies of a command type.
+     *
+     * @param code the command code
+     * @return the histogram, live: it keeps recording
+     */
+    public LatencyHistogram latencies(int code) {
+        return commands[code];
+    }
+
+    /**
+     * Gets the number of feeds produced.
+     *
+     * @return the number of feeds
+     */
+    public long feeds() {
+        return feeds.sum();
+    }
+
+    /**
+     * Gets the number of posts returned by all feeds.
+     *
+     * @return the number of feed posts
+     */
+    public long feedPosts() {
+        return feedPosts.sum();
+    }
+
+    /**
+     * Gets the number of candidate posts taken off the followed users' post indexes by all
+     * feeds, both returned and filtered out as seen.
+     *
+     * @return the number of scanned candidates
+     */
+    public long candidatesScanned() {
+        return candidatesScanned.sum();
+    }
+
+    /**
+     * Gets the number of candidate posts dropped because the viewer had seen them.
+     *
+     * @return the number of seen-filtered posts
+     */
+    public long seenFiltered() {
+        return seenFiltered.sum();
+    }
+
+    /**
+     * Gets the number of sift-downs of the feeds' cursor heaps.
+     *
+     * @return the number of heap operations
+     */
+    public long heapOperations() {
+        return heapOperations.sum();
+    }
+
+    /**
+     * Writes a summary: latency percentiles of every command type that ran, and the feed
+     * counters.
+     *
+     * @param out the stream receiving the report
+     */
+    public void report(PrintStream out) {
+        if (!ENABLED) {
+            out.println("Metrics are off (-Dfeed.metrics=false)");
+            return;
+        }
+        out.printf("%-24s %10s %9s %9s %9s %9s %9s %10s%n",
+                "Command latency (us)", "count", "mean", "p50", "p90", "p99", "p99.9", "max");
+        for (int code = 0; code < commands.length; code++) {
+            LatencyHistogram histogram = commands[code];
+            long count = histogram.count();
+            if (count == 0) {
+                continue;
+            }
+            out.printf("%-24s %10d %9.2f %9.2f %9.2f %9.2f %9.2f %10.2f%n",
+                    CommandBatch.commandName(code), count, histogram.mean() / 1000,
+                    histogram.percentile(0.50) / 1000.0, histogram.percentile(0.90) / 1000.0,
+                    histogram.percentile(0.99) / 1000.0, histogram.percentile(0.999) / 1000.0,
+                    histogram.max() / 1000.0);
+        }
+
+        long feedCount = feeds();
+        out.printf("Feeds: %d, posts returned: %d, candidates scanned: %d, seen filtered: %d,"
+                        + " heap operations: %d (per feed: %.1f scanned, %.1f seen, %.1f heap)%n",
+                feedCount, feedPosts(), candidatesScanned(), seenFiltered(), heapOperations(),
+                perFeed(candidatesScanned(), feedCount), perFeed(seenFiltered(), feedCount),
+                perFeed(heapOperations(), feedCount));
+    }
+
+    /**
+     * Writes the probe statistics of a hash map as one report line.
+     *
+     * @param out  the stream receiving the line
+     * @param name the name of the map
+     * @param map  the map
+     */
+    static void reportTable(PrintStream out, String name, MyHashMap map) {
+        out.printf("Table %s: %d entries in %d slots, %d probes, mean probe length %.2f,"
+                        + " longest %d, rehashes %d%n",
+                name, map.size(), map.capacity(), map.probeCount(), map.meanProbeLength(),
+                map.longestProbe(), map.rehashCount());
+    }
+
+    private static double perFeed(long total, long feeds) {
+        return feeds == 0 ? 0 : (double) total / feeds;
+    }
+}
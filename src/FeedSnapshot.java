@@ -0,0 +1,536 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Saves the whole state of a {@link FeedManager} to a compact binary file and loads it back,
+ * so a restart reads the state at disk speed instead of replaying the command history.
+ *
+ * The file starts with a header (magic, version, largest user and post numbers, number of
+ * users and posts) followed by six sections, each a tag and a byte length:
+ * <ol>
+ *   <li>users: number and ID of every user</li>
+ *   <li>posts: number, author number, ID and content of every post</li>
+ *   <li>follows: number of every user and the numbers of the users it follows</li>
+ *   <li>likes: number of every post and the numbers of the users who like it</li>
+ *   <li>seen posts: number of every user and its length-prefixed seen bitmap</li>
+ *   <li>seen watermarks: number of every user and its (author number, post number) pairs</li>
+ * </ol>
+ * Version 1 files, written before seen watermarks existed, have no sixth section and are
+ * still loaded.
+ * Every String is written once, as a length-prefixed UTF-8 slice, and every relation refers
+ * to users and posts by their dense numbers, which are kept as they are.
+ *
+ * Saving writes the file front to back through one reusable buffer. Loading maps the file
+ * and reads it in bulk: the maps are sized up front, int lists and bitmap containers are
+ * copied as whole arrays, and the post index of every user is built bottom-up in one pass
+ * instead of by one insert per post. The derived state (created posts, liked posts, like
+ * counts and per-author seen counts) is rebuilt from the sections instead of being stored
+ * twice.
+ *
+ * No command may run while a snapshot is saved or loaded.
+ *
+ * Usage: java FeedSnapshot commandFile snapshotFile
+ * (replays the command file, saves a snapshot, loads it back and compares the timings)
+ */
+public class FeedSnapshot {
+    // "IFMS" and the format version
+    private static final int MAGIC = 0x49464D53;
+    private static final int VERSION = 2;
+
+    // Oldest format version that can still be loaded
+    private static final int OLDEST_VERSION = 1;
+
+    // Section tags, in file order
+    private static final int USERS = 1;
+    private static final int POSTS = 2;
+    private static final int FOLLOWS = 3;
+    private static final int LIKES = 4;
+    private static final int SEEN = 5;
+    private static final int WATERMARKS = 6;
+
+    // Size of the write buffer
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    // Largest part of the file mapped at once
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    public static void main(String[] args) throws IOException {
+        String commandFile = args[0];
+        String snapshotFile = args[1];
+
+        // Replay the command history, as a restart without a snapshot would
+        FeedManager replayed = new FeedManager();
+        File output = File.createTempFile("replay", ".txt");
+        long start = System.nanoTime();
+        new FileHandler(replayed).processInputFile(commandFile, output.getPath(), FileHandler.SEQUENTIAL);
+        long replay = System.nanoTime() - start;
+        output.delete();
+
+        start = System.nanoTime();
+        save(replayed, snapshotFile);
+        long saving = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        FeedManager loaded = load(snapshotFile);
+        long loading = System.nanoTime() - start;
+
+        boolean same = Arrays.equals(describe(replayed), describe(loaded));
+        System.out.println("Snapshot: " + new File(snapshotFile).length() + " bytes");
+        System.out.println("Replay " + replay / 1000000 + " ms, save " + saving / 1000000
+                + " ms, load " + loading / 1000000 + " ms");
+        System.out.println(same ? "OK: loaded state equals the replayed one" : "FAILED: loaded state differs");
+        if (!same) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Writes a snapshot of a FeedManager to a file.
+     *
+     * @param feedManager the FeedManager to save
+     * @param path        the path of the snapshot file, replaced if it exists
+     * @throws IOException if the file cannot be written
+     */
+    public static void save(FeedManager feedManager, String path) throws IOException {
+        User[] users = feedManager.usersByNumber();
+        Post[] posts = feedManager.postsByNumber();
+        int userCount = 0;
+        for (User user : users) {
+            userCount += user != null ? 1 : 0;
+        }
+        int postCount = 0;
+        for (Post post : posts) {
+            postCount += post != null ? 1 : 0;
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Writer out = new Writer(channel);
+            out.room(24).putInt(MAGIC).putInt(VERSION)
+                    .putInt(users.length - 1).putInt(posts.length - 1)
+                    .putInt(userCount).putInt(postCount);
+
+            out.startSection(USERS);
+            for (User user : users) {
+                if (user != null) {
+                    out.room(4).putInt(user.id);
+                    out.putString(user.userId);
+                }
+            }
+            out.endSection();
+
+            out.startSection(POSTS);
+            for (Post post : posts) {
+                if (post != null) {
+                    out.room(8).putInt(post.id).putInt(post.author.id);
+                    out.putString(post.postId);
+                    out.putString(post.content);
+                }
+            }
+            out.endSection();
+
+            out.startSection(FOLLOWS);
+            for (User user : users) {
+                if (user != null) {
+                    Object[] followed = user.followedUsers.values();
+                    out.room(8).putInt(user.id).putInt(followed.length);
+                    for (Object value : followed) {
+                        out.room(4).putInt(((User) value).id);
+                    }
+                }
+            }
+            out.endSection();
+
+            out.startSection(LIKES);
+            for (Post post : posts) {
+                if (post != null) {
+                    int[] likers = post.likes.keys();
+                    out.room(8).putInt(post.id).putInt(likers.length);
+                    out.putInts(likers);
+                }
+            }
+            out.endSection();
+
+            out.startSection(SEEN);
+            for (User user : users) {
+                if (user != null) {
+                    int size = user.seenPosts.serializedSize();
+                    out.room(8).putInt(user.id).putInt(size);
+                    user.seenPosts.writeTo(out.room(size));
+                }
+            }
+            out.endSection();
+
+            out.startSection(WATERMARKS);
+            for (User user : users) {
+                if (user != null) {
+                    int[] authors = user.seenAuthors.keys();
+                    Object[] seen = user.seenAuthors.values();
+                    int[] pairs = new int[2 * authors.length];
+                    int count = 0;
+                    for (int i = 0; i < authors.length; i++) {
+                        int upTo = ((User.SeenAuthor) seen[i]).upTo;
+                        if (upTo > 0) {
+                            pairs[2 * count] = authors[i];
+                            pairs[2 * count + 1] = upTo;
+                            count++;
+                        }
+                    }
+                    out.room(8).putInt(user.id).putInt(count);
+                    out.putInts(Arrays.copyOf(pairs, 2 * count));
+                }
+            }
+            out.endSection();
+
+            out.flush();
+        }
+    }
+
+    /**
+     * Loads a snapshot into a new FeedManager.
+     *
+     * @param path the path of the snapshot file
+     * @return the restored FeedManager
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static FeedManager load(String path) throws IOException {
+        FeedManager feedManager = new FeedManager();
+        load(path, feedManager);
+        return feedManager;
+    }
+
+    /**
+     * Loads a snapshot into an empty FeedManager, for example a {@link ConcurrentFeedManager}.
+     *
+     * @param path        the path of the snapshot file
+     * @param feedManager the FeedManager to fill, which must have no users or posts
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static void load(String path, FeedManager feedManager) throws IOException {
+        if (feedManager.usersByNumber().length > 1 || feedManager.postsByNumber().length > 1) {
+            throw new IllegalStateException("A snapshot can only be loaded into an empty FeedManager");
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            Reader in = new Reader(channel);
+            ByteBuffer header = in.need(24);
+            int magic = header.getInt();
+            int version = header.getInt();
+            if (magic != MAGIC || version < OLDEST_VERSION || version > VERSION) {
+                throw new IOException("Not a snapshot of this version: " + path);
+            }
+            User[] users = new User[header.getInt() + 1];
+            Post[] posts = new Post[header.getInt() + 1];
+            int userCount = header.getInt();
+            int postCount = header.getInt();
+            feedManager.reserve(userCount, postCount);
+            int[] numbers = new int[16];
+
+            in.startSection(USERS);
+            for (int i = 0; i < userCount; i++) {
+                int number = in.need(4).getInt();
+                User user = new User(number, in.getString());
+                users[number] = user;
+                feedManager.restoreUser(user);
+            }
+            in.endSection();
+
+            // Posts come in number order, so every author's post bitmap is filled in order
+            in.startSection(POSTS);
+            int[] postsPerAuthor = new int[users.length];
+            for (int i = 0; i < postCount; i++) {
+                ByteBuffer buffer = in.need(8);
+                int number = buffer.getInt();
+                User author = users[buffer.getInt()];
+                String postId = in.getString();
+                Post post = new Post(number, postId, author, in.getString());
+                posts[number] = post;
+                author.posts.add(number);
+                author.lastPostNumber = number;
+                postsPerAuthor[author.id]++;
+                feedManager.restorePost(post);
+            }
+            in.endSection();
+
+            in.startSection(FOLLOWS);
+            for (int i = 0; i < userCount; i++) {
+                ByteBuffer buffer = in.need(8);
+                User user = users[buffer.getInt()];
+                int count = buffer.getInt();
+                numbers = in.getInts(count, numbers);
+                for (int j = 0; j < count; j++) {
+                    user.follow(users[numbers[j]]);
+                }
+            }
+            in.endSection();
+
+            in.startSection(LIKES);
+            for (int i = 0; i < postCount; i++) {
+                ByteBuffer buffer = in.need(8);
+                Post post = posts[buffer.getInt()];
+                int count = buffer.getInt();
+                numbers = in.getInts(count, numbers);
+                for (int j = 0; j < count; j++) {
+                    post.addLike(numbers[j]);
+                    users[numbers[j]].likedPosts.insert(post.firstWithId.id);
+                }
+            }
+            in.endSection();
+
+            in.startSection(SEEN);
+            for (int i = 0; i < userCount; i++) {
+                ByteBuffer buffer = in.need(8);
+                User user = users[buffer.getInt()];
+                user.seenPosts.readFrom(in.need(buffer.getInt()));
+            }
+            in.endSection();
+
+            if (version >= 2) {
+                in.startSection(WATERMARKS);
+                for (int i = 0; i < userCount; i++) {
+                    ByteBuffer buffer = in.need(8);
+                    User user = users[buffer.getInt()];
+                    int count = buffer.getInt();
+                    numbers = in.getInts(2 * count, numbers);
+                    for (int j = 0; j < count; j++) {
+                        user.setSeenUpTo(numbers[2 * j], numbers[2 * j + 1]);
+                    }
+                }
+                in.endSection();
+            }
+
+            // Count the posts every user has seen one by one, per author
+            for (User user : users) {
+                if (user != null) {
+                    for (int number : user.seenPosts.toArray()) {
+                        if (number < posts.length && posts[number] != null) {
+                            user.countSeen(posts[number]);
+                        }
+                    }
+                }
+            }
+
+            buildPostIndexes(users, posts, postsPerAuthor);
+        }
+    }
+
+    /**
+     * Builds the post index of every user in one bottom-up pass per user. The posts are
+     * first grouped by author with a counting sort.
+     *
+     * @param users          the users, indexed by number
+     * @param posts          the posts, indexed by number
+     * @param postsPerAuthor the number of posts of every user, indexed by number
+     */
+    private static void buildPostIndexes(User[] users, Post[] posts, int[] postsPerAuthor) {
+        int[] starts = new int[users.length + 1];
+        for (int i = 0; i < users.length; i++) {
+            starts[i + 1] = starts[i] + postsPerAuthor[i];
+        }
+        Post[] grouped = new Post[starts[users.length]];
+        int[] next = Arrays.copyOf(starts, users.length);
+        for (Post post : posts) {
+            if (post != null) {
+                grouped[next[post.author.id]++] = post;
+            }
+        }
+        for (User user : users) {
+            if (user != null) {
+                user.postIndex.build(grouped, starts[user.id], postsPerAuthor[user.id]);
+            }
+        }
+    }
+
+    /**
+     * Lists every user's 10-post feed and sorted posts, to compare two FeedManagers.
+     *
+     * @param feedManager the FeedManager to describe
+     * @return the results as bytes
+     * @throws IOException if the results cannot be collected
+     */
+    private static byte[] describe(FeedManager feedManager) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink out = new OutputSink(bytes);
+        for (User user : feedManager.usersByNumber()) {
+            if (user != null) {
+                feedManager.generateFeed(user, 10, out);
+                out.newLine();
+                feedManager.sortPosts(user, out);
+                out.newLine();
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the file front to back through one buffer. Section lengths are filled in when
+     * a section ends.
+     */
+    private static class Writer {
+        private final FileChannel channel;
+        private ByteBuffer buffer;
+
+        // File position of the current section's length field
+        private long sectionLengthPosition;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+            this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        /**
+         * Makes room in the buffer for the given number of bytes, writing out what it holds
+         * if needed.
+         *
+         * @param bytes the number of bytes about to be put
+         * @return the buffer to put them into
+         * @throws IOException if the file cannot be written
+         */
+        ByteBuffer room(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+                if (buffer.capacity() < bytes) {
+                    buffer = ByteBuffer.allocateDirect(bytes); // A single large bitmap
+                }
+            }
+            return buffer;
+        }
+
+        void putString(String text) throws IOException {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            room(4 + bytes.length).putInt(bytes.length).put(bytes);
+        }
+
+        void putInts(int[] values) throws IOException {
+            for (int offset = 0; offset < values.length; ) {
+                int count = Math.min(values.length - offset, BUFFER_SIZE / 4);
+                ByteBuffer target = room(4 * count);
+                target.asIntBuffer().put(values, offset, count);
+                target.position(target.position() + 4 * count);
+                offset += count;
+            }
+        }
+
+        void startSection(int tag) throws IOException {
+            room(12).putInt(tag);
+            sectionLengthPosition = position();
+            buffer.putLong(0);
+        }
+
+        void endSection() throws IOException {
+            long length = position() - sectionLengthPosition - 8;
+            flush();
+            ByteBuffer field = ByteBuffer.allocate(8).putLong(0, length);
+            channel.write(field, sectionLengthPosition);
+        }
+
+        /**
+         * Gets the file position of the next byte put into the buffer.
+         *
+         * @return the file position
+         * @throws IOException if the channel position cannot be read
+         */
+        long position() throws IOException {
+            return channel.position() + buffer.position();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads a memory-mapped file front to back. The file is mapped in windows of up to
+     * {@link #WINDOW_SIZE} bytes, and a new window is mapped whenever the next read does
+     * not fit in the current one.
+     */
+    private static class Reader {
+        private final FileChannel channel;
+        private final long fileSize;
+
+        // The current window and its file position
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        // File position where the current section ends
+        private long sectionEnd;
+
+        Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.fileSize = channel.size();
+            map(0);
+        }
+
+        private void map(long start) throws IOException {
+            windowStart = start;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+        }
+
+        /**
+         * Makes sure the next bytes are in the window.
+         *
+         * @param bytes the number of bytes about to be read
+         * @return the window, positioned at them
+         * @throws IOException if the file ends first
+         */
+        ByteBuffer need(long bytes) throws IOException {
+            if (window.remaining() < bytes) {
+                long position = position();
+                if (fileSize - position < bytes) {
+                    throw new IOException("Snapshot is truncated");
+                }
+                map(position);
+            }
+            return window;
+        }
+
+        String getString() throws IOException {
+            int length = need(4).getInt();
+            byte[] bytes = new byte[length];
+            need(length).get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int[] getInts(int count, int[] scratch) throws IOException {
+            if (scratch.length < count) {
+                scratch = new int[Math.max(count, scratch.length * 2)];
+            }
+            ByteBuffer source = need(4L * count);
+            source.asIntBuffer().get(scratch, 0, count);
+            source.position(source.position() + 4 * count);
+            return scratch;
+        }
+
+        void startSection(int tag) throws IOException {
+            ByteBuffer buffer = need(12);
+            if (buffer.getInt() != tag) {
+                throw new IOException("Snapshot section " + tag + " is missing");
+            }
+            long length = buffer.getLong();
+            sectionEnd = position() + length;
+        }
+
+        void endSection() throws IOException {
+            if (position() != sectionEnd) {
+                throw new IOException("Snapshot section does not match its length");
+            }
+        }
+
+        private long position() {
+            return windowStart + window.position();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+import java.util.Arrays;
+
+/**
+ * Stopwatch of the phases of one feed, reused by every feed of a thread:
+ * <ul>
+ *   <li>candidate collection: opening a cursor over the post index of every followed user,</li>
+ *   <li>heap build: ordering the cursors into a heap,</li>
+ *   <li>extraction: taking posts off the heap, including the seen posts skipped on the way,
+ *       and, when scrolling, marking them seen and applying the likes,</li>
+ *   <li>output formatting: writing the feed log.</li>
+ * </ul>
+ * Extraction and output formatting alternate once per post, so tracing costs two clock
+ * reads per post. A feed is only traced while a recording takes {@link FeedEvent}s or the
+ * {@link SlowCommandLog} is on; otherwise {@link #start} returns null and the feed runs
+ * without any clock reads.
+ */
+public class FeedTrace {
+    // Phases, indexing the phase times
+    static final int COLLECTION = 0;
+    static final int HEAP_BUILD = 1;
+    static final int EXTRACTION = 2;
+    static final int FORMATTING = 3;
+
+    private static final String[] PHASE_NAMES = {
+            "candidate collection", "heap build", "extraction", "output formatting"
+    };
+
+    // Never committed; tells whether a recording takes feed events right now
+    private static final FeedEvent FEED_EVENTS = new FeedEvent();
+
+    // The trace of every thread producing feeds
+    private static final ThreadLocal<FeedTrace> TRACES = ThreadLocal.withInitial(FeedTrace::new);
+
+    // The feed being traced
+    private String command;
+    private User viewer;
+    private FeedEvent event;
+
+    // Time spent in every phase, and when the current phase began
+    private final long[] phaseNanos = new long[PHASE_NAMES.length];
+    private long started;
+    private long lapStarted;
+    private long finished;
+
+    // Work done by the feed
+    private int cursors;
+    private int candidatesScanned;
+    private int seenFiltered;
+    private int heapOperations;
+    private int posts;
+
+    // Whether a feed finished since the last clear()
+    private boolean complete;
+
+    /**
+     * Starts tracing a feed on the current thread if anything takes traces.
+     *
+     * @param command the name of the command producing the feed
+     * @param viewer  the user whose feed is produced
+     * @return the trace of the current thread, or null if feeds are not traced
+     */
+    static FeedTrace start(String command, User viewer) {
+        if (!SlowCommandLog.ENABLED && !FEED_EVENTS.isEnabled()) {
+            return null;
+        }
+        FeedEvent event = new FeedEvent();
+        FeedTrace trace = TRACES.get();
+        trace.command = command;
+        trace.viewer = viewer;
+        trace.complete = false;
+        Arrays.fill(trace.phaseNanos, 0);
+        trace.event = event;
+        event.begin();
+        trace.started = System.nanoTime();
+        trace.lapStarted = trace.started;
+        return trace;
+    }
+
+    /**
+     * Gets the trace of the current thread, holding its last traced feed.
+     *
+     * @return the trace
+     */
+    static FeedTrace current() {
+        return TRACES.get();
+    }
+
+    /**
+     * Ends the current phase: the time since the previous lap is added to it.
+     *
+     * @param phase the phase that just ended
+     */
+    void lap(int phase) {
+        long now = System.nanoTime();
+        phaseNanos[phase] += now - lapStarted;
+        lapStarted = now;
+    }
+
+    /**
+     * Ends candidate collection.
+     *
+     * @param feed the iterator whose cursors were just opened
+     */
+    void collected(FeedIterator feed) {
+        lap(COLLECTION);
+        cursors = feed.cursorCount();
+    }
+
+    /**
+     * Ends the feed: the time since the last lap is output formatting. Commits a
+     * {@link FeedEvent} if a recording takes it.
+     *
+     * @param feed  the iterator that produced the feed
+     * @param posts the number of posts the feed returned
+     */
+    void finish(FeedIterator feed, int posts) {
+        lap(FORMATTING);
+        finished = lapStarted;
+        candidatesScanned = feed.scanned();
+        seenFiltered = feed.seenSkipped();
+        heapOperations = feed.heapOperations();
+        this.posts = posts;
+        complete = true;
+
+        FeedEvent event = this.event;
+        this.event = null;
+        event.end();
+        if (event.shouldCommit()) {
+            event.command = command;
+            event.userId = viewer.userId;
+            event.followees = viewer.followedUsers.size();
+            event.cursors = cursors;
+            event.candidatesScanned = candidatesScanned;
+            event.seenFiltered = seenFiltered;
+            event.heapOperations = heapOperations;
+            event.posts = posts;
+            event.collectionTime = phaseNanos[COLLECTION];
+            event.heapBuildTime = phaseNanos[HEAP_BUILD];
+            event.extractionTime = phaseNanos[EXTRACTION];
+            event.formattingTime = phaseNanos[FORMATTING];
+            event.commit();
+        }
+    }
+
+    /**
+     * Forgets the last feed, so {@link #isComplete()} tells whether another one finished.
+     */
+    void clear() {
+        complete = false;
+    }
+
+    /**
+     * Checks whether a feed finished since the last {@link #clear()}.
+     *
+     * @return true if the trace holds a finished feed
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Gets the time from the start to the end of the last feed.
+     *
+     * @return the time in nanoseconds
+     */
+    long elapsed() {
+        return finished - started;
+    }
+
+    /**
+     * Describes the last feed: its work and the time of every phase.
+     *
+     * @param out the builder receiving the description
+     */
+    void describe(StringBuilder out) {
+        out.append("feed of ").append(viewer.userId)
+                .append(": ").append(viewer.followedUsers.size()).append(" followees, ")
+                .append(cursors).append(" cursors, ")
+                .append(candidatesScanned).append(" candidates scanned, ")
+                .append(seenFiltered).append(" seen filtered, ")
+                .append(heapOperations).append(" heap operations, ")
+                .append(posts).append(" posts");
+        for (int phase = 0; phase < PHASE_NAMES.length; phase++) {
+            out.append(phase == 0 ? "; " : ", ").append(PHASE_NAMES[phase]).append(' ')
+                    .append(SlowCommandLog.millis(phaseNanos[phase])).append(" ms");
+        }
+    }
+}
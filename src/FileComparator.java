@@ -6,9 +6,13 @@ import java.util.List;
 public class FileComparator {
 
     public static void main(String[] args) {
-        // Define the paths to the files to be compared
-        String filePath1 = "IO Files/output/output.txt"; // Replace with your first file path
-        String filePath2 = "IO Files/output/otype4_large.txt"; // Replace with your second file path
+        // The paths of the files to be compared: actual output first, expected output second
+        if (args.length < 2) {
+            System.out.println("Usage: java FileComparator <actualOutput> <expectedOutput>");
+            return;
+        }
+        String filePath1 = args[0];
+        String filePath2 = args[1];
 
         try {
             // Compare the contents of the two files
@@ -4,16 +4,97 @@ import java.io.*;
  * Handles file input and output operations for the Instagram Feed Manager system.
  * Reads commands from an input file, processes them using FeedManager, and writes
  * results to an output file.
+ * Commands are parsed into {@link CommandBatch} records, so parsing creates no token arrays
+ * or Strings, and results are written by FeedManager straight into an {@link OutputSink}.
+ *
+ * In pipelined mode, parsing, executing and writing run on three threads connected by
+ * bounded ring buffers: a parser thread fills batches, the calling thread executes them in
+ * order against the FeedManager, and a writer thread writes the output chunks in order.
+ * Only the executing thread touches the FeedManager.
+ *
+ * In parallel mode, the chunks of the input file are read and parsed on a
+ * fork-join pool by a {@link ChunkedCommandParser}; the calling thread executes the batches
+ * in file order.
  */
 public class FileHandler {
+    // Processing modes
+    public static final int SEQUENTIAL = 0;
+    public static final int PIPELINED = 1;
+    public static final int PARALLEL = 2;
+
+    // Number of batches and output chunks in flight between the pipeline stages
+    private static final int PIPELINE_DEPTH = 4;
+
+    // Size of the output chunks handed to the writer thread
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    // Never committed; tells whether a recording takes command events right now
+    private static final CommandEvent COMMAND_EVENTS = new CommandEvent();
+
     // Instance of FeedManager to handle feed-related commands
     private final FeedManager feedManager;
 
+    // Journal of the mutating commands (null if they are not journaled)
+    private final CommandJournal journal;
+
+    // Sequence number of the last command this handler appended to the journal
+    private long journaled;
+
+    // Log of the commands slower than -Dfeed.slowCommandMicros (only used if that is set)
+    private final SlowCommandLog slowCommands;
+
+    // Like flags of scroll_through_feed, reused between commands
+    private int[] likeFlags;
+
     /**
      * Constructs a FileHandler and initializes a FeedManager.
      */
     public FileHandler() {
-        this.feedManager = new FeedManager();
+        this(new FeedManager());
+    }
+
+    /**
+     * Constructs a FileHandler running commands against a given FeedManager.
+     * Used by {@link CommandServer}, where every connection has its own handler and all of
+     * them share one {@link ConcurrentFeedManager}.
+     *
+     * @param feedManager the FeedManager executing the commands
+     */
+    FileHandler(FeedManager feedManager) {
+        this(feedManager, null);
+    }
+
+    /**
+     * Constructs a FileHandler running commands against a given FeedManager and appending
+     * every mutating command to a journal.
+     *
+     * @param feedManager the FeedManager executing the commands
+     * @param journal     the journal of the mutating commands, or null for none
+     */
+    FileHandler(FeedManager feedManager, CommandJournal journal) {
+        this.feedManager = feedManager;
+        this.journal = journal;
+        this.slowCommands = new SlowCommandLog(feedManager);
+        this.likeFlags = new int[16];
+    }
+
+    /**
+     * Gets the FeedManager executing the commands, for its metrics.
+     *
+     * @return the FeedManager
+     */
+    FeedManager feedManager() {
+        return feedManager;
+    }
+
+    /**
+     * Gets the processing mode that suits this machine: pipelined if every stage can have a
+     * processor of its own, sequential otherwise.
+     *
+     * @return the default processing mode
+     */
+    public static int defaultMode() {
+        return Runtime.getRuntime().availableProcessors() >= 3 ? PIPELINED : SEQUENTIAL;
     }
 
     /**
@@ -24,122 +105,462 @@ public class FileHandler {
      * @param outputFilePath the path to the output file for writing command results
      */
     public void processInputFile(String inputFilePath, String outputFilePath) {
-        // Try-with-resources to ensure BufferedReader and BufferedWriter are closed properly
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputFilePath));
-             BufferedWriter writer = new BufferedWriter(new FileWriter(outputFilePath))) {
-
-            String line;
-
-            // Read and process each command line from the input file
-            while ((line = reader.readLine()) != null) {
-                // Split the command line into command and parameters
-                String[] tokens = line.split(" ");
-                String command = tokens[0];
-                String output;
-
-                // Handle each command type
-                switch (command) {
-                    case "create_user":
-                        // Create a new user
-                        String userId = tokens[1];
-                        output = feedManager.createUser(userId);
-                        writer.write(output);
-                        writer.newLine();
-                        break;
+        processInputFile(inputFilePath, outputFilePath, defaultMode());
+    }
 
-                    case "follow_user":
-                        // Make one user follow another
-                        String userId1 = tokens[1];
-                        String userId2 = tokens[2];
-                        output = feedManager.followUser(userId1, userId2);
-                        writer.write(output);
-                        writer.newLine();
-                        break;
+    /**
+     * Processes commands from an input file and writes results to an output file,
+     * in the given processing mode. All modes produce the same output.
+     *
+     * @param inputFilePath  the path to the input file containing commands
+     * @param outputFilePath the path to the output file for writing command results
+     * @param mode           {@link #SEQUENTIAL}, {@link #PIPELINED} or {@link #PARALLEL}
+     */
+    public void processInputFile(String inputFilePath, String outputFilePath, int mode) {
+        Exception failure;
 
-                    case "unfollow_user":
-                        // Make one user unfollow another
-                        String userId3 = tokens[1];
-                        String userId4 = tokens[2];
-                        output = feedManager.unfollowUser(userId3, userId4);
-                        writer.write(output);
-                        writer.newLine();
-                        break;
+        // Try-with-resources to ensure the input and output streams are closed properly
+        try (FileInputStream input = new FileInputStream(inputFilePath);
+             OutputStream output = new FileOutputStream(outputFilePath)) {
 
-                    case "create_post":
-                        // Create a new post for a user
-                        String userId5 = tokens[1];
-                        String postId = tokens[2];
-                        String content = tokens[3];
-                        output = feedManager.createPost(userId5, postId, content);
-                        writer.write(output);
-                        writer.newLine();
-                        break;
+            if (mode == PARALLEL) {
+                failure = processParallel(input, output);
+            } else {
+                CommandTokenizer tokenizer = new CommandTokenizer(input);
+                failure = mode == PIPELINED
+                        ? processPipelined(tokenizer, output)
+                        : processSequential(tokenizer, output);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            failure = e;
+        }
 
-                    case "see_post":
-                        // Mark a post as seen by a user
-                        String userId6 = tokens[1];
-                        String postId2 = tokens[2];
-                        output = feedManager.seePost(userId6, postId2);
-                        writer.write(output);
-                        writer.newLine();
-                        break;
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure; // A command line could not be parsed
+        } else if (failure != null) {
+            // Handle any I/O exceptions that occur
+            failure.printStackTrace();
+        }
+    }
 
-                    case "see_all_posts_from_user":
-                        // Mark all posts of one user as seen by another user
-                        String userId7 = tokens[1];
-                        String userId8 = tokens[2];
-                        output = feedManager.seeAllPostsFromUser(userId7, userId8);
-                        writer.write(output);
-                        writer.newLine();
-                        break;
+    /**
+     * Executes every command of a stream on the calling thread. Used to replay a
+     * {@link CommandJournal}.
+     *
+     * @param input  the stream of command lines
+     * @param output the stream receiving the results
+     * @throws IOException if the input cannot be read or the output cannot be written
+     */
+    void processStream(InputStream input, OutputStream output) throws IOException {
+        Exception failure = processSequential(new CommandTokenizer(input), output);
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+    }
 
-                    case "toggle_like":
-                        // Toggle like/unlike status for a post by a user
-                        String userId9 = tokens[1];
-                        String postId3 = tokens[2];
-                        output = feedManager.toggleLike(userId9, postId3);
-                        writer.write(output);
-                        writer.newLine();
-                        break;
+    /**
+     * Parses, executes and writes all commands on the calling thread.
+     *
+     * @param tokenizer the tokenizer reading the input
+     * @param output    the stream receiving the results
+     * @return the failure that stopped processing, or null
+     * @throws IOException if the output cannot be written
+     */
+    private Exception processSequential(CommandTokenizer tokenizer, OutputStream output) throws IOException {
+        OutputSink out = new OutputSink(output);
+        CommandBatch batch = new CommandBatch();
 
-                    case "generate_feed":
-                        // Generate a feed for a user
-                        String userId10 = tokens[1];
-                        int num = Integer.parseInt(tokens[2]);
-                        output = feedManager.generateFeed(userId10, num)[0].toString();
-                        writer.write(output);
-                        writer.newLine();
-                        break;
+        while (batch.readFrom(tokenizer)) {
+            execute(batch, out);
+            if (batch.error() != null) {
+                break;
+            }
+        }
 
-                    case "scroll_through_feed":
-                        // Process a user's scrolling through the feed
-                        String userId11 = tokens[1];
-                        int num2 = Integer.parseInt(tokens[2]);
-                        int[] likes = new int[num2];
-                        for (int i = 3; i < tokens.length; i++) {
-                            likes[i - 3] = Integer.parseInt(tokens[i]);
-                        }
-                        output = feedManager.scrollThroughFeed(userId11, num2, likes);
-                        writer.write(output);
-                        writer.newLine();
-                        break;
+        out.flush();
+        return batch.error();
+    }
 
-                    case "sort_posts":
-                        // Sort a user's posts by likes
-                        String userId12 = tokens[1];
-                        output = feedManager.sortPosts(userId12);
-                        writer.write(output);
-                        writer.newLine();
-                        break;
+    /**
+     * Parses the input file in chunks on a fork-join pool and executes the batches in file
+     * order on the calling thread. One processor is left to the executing thread.
+     *
+     * @param input  the input file
+     * @param output the stream receiving the results
+     * @return the failure that stopped processing, or null
+     * @throws IOException if the input cannot be read or the output cannot be written
+     */
+    private Exception processParallel(FileInputStream input, OutputStream output) throws IOException {
+        OutputSink out = new OutputSink(output);
+        Exception failure = null;
+        int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
 
-                    default:
-                        // Handle unknown commands
-                        System.out.println("Unknown command: " + command);
+        try (ChunkedCommandParser parser = new ChunkedCommandParser(input.getChannel(), parallelism)) {
+            for (CommandBatch batch = parser.nextBatch(); batch != null; batch = parser.nextBatch()) {
+                execute(batch, out);
+                failure = batch.error();
+                if (failure != null) {
+                    break;
                 }
             }
-        } catch (IOException e) {
-            // Handle any I/O exceptions that occur
-            e.printStackTrace();
+        } finally {
+            out.flush();
+        }
+        return failure;
+    }
+
+    /**
+     * Runs the parse, execute and write stages on three threads. The calling thread executes
+     * the commands; batches and output chunks are recycled through free rings, so the
+     * pipeline allocates nothing once it runs.
+     *
+     * @param tokenizer the tokenizer reading the input
+     * @param output    the stream receiving the results
+     * @return the failure that stopped processing, or null
+     * @throws IOException if the output cannot be written
+     */
+    private Exception processPipelined(CommandTokenizer tokenizer, OutputStream output) throws IOException {
+        MyRingBuffer freeBatches = new MyRingBuffer(PIPELINE_DEPTH);
+        MyRingBuffer parsedBatches = new MyRingBuffer(PIPELINE_DEPTH);
+        MyRingBuffer freeChunks = new MyRingBuffer(PIPELINE_DEPTH);
+        MyRingBuffer filledChunks = new MyRingBuffer(PIPELINE_DEPTH);
+        try {
+            for (int i = 0; i < PIPELINE_DEPTH; i++) {
+                freeBatches.put(new CommandBatch());
+                freeChunks.put(new OutputChunk());
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+
+        ParserStage parser = new ParserStage(tokenizer, freeBatches, parsedBatches);
+        WriterStage writer = new WriterStage(output, freeChunks, filledChunks);
+        parser.start();
+        writer.start();
+
+        Exception failure = null;
+        OutputSink out = new OutputSink(new ChunkStream(freeChunks, filledChunks), CHUNK_SIZE);
+        try {
+            while (true) {
+                CommandBatch batch = (CommandBatch) parsedBatches.take();
+                if (batch.size() == 0 && batch.error() == null) {
+                    break; // End of the input
+                }
+                execute(batch, out);
+                failure = batch.error();
+                freeBatches.put(batch);
+                if (failure != null) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException();
+        } finally {
+            // Stop the parser if it is still running, and let the writer drain and finish
+            parser.interrupt();
+            out.close();
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (failure == null) {
+            failure = writer.error;
+        }
+        return failure;
+    }
+
+    /**
+     * Executes the commands of a batch in order, ending every result with a line break.
+     *
+     * With a journal, the results are only handed on once the batch's commands are durable.
+     *
+     * @param batch the commands to execute
+     * @param out   the sink receiving the results
+     * @throws IOException if the journal cannot be written
+     */
+    private void execute(CommandBatch batch, OutputSink out) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            if (execute(batch, i, out)) {
+                out.newLine();
+            } else {
+                // Handle unknown commands
+                System.out.println("Unknown command: " + batch.id(i, 0));
+            }
+        }
+        sync();
+    }
+
+    /**
+     * Executes one command of a batch, appending it to the journal if it is journaled and
+     * mutating, and records its latency in the FeedManager's metrics, in a
+     * {@link CommandEvent} and, if it was slow, in the {@link SlowCommandLog}. The result is
+     * not ended with a line break.
+     *
+     * @param batch   the batch holding the command
+     * @param command the position of the command in the batch
+     * @param out     the sink receiving the result
+     * @return true if a result was written, false for an unknown command
+     */
+    boolean execute(CommandBatch batch, int command, OutputSink out) {
+        // Without a recording taking command events, no event is allocated
+        CommandEvent event = COMMAND_EVENTS.isEnabled() ? new CommandEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        if (SlowCommandLog.ENABLED) {
+            slowCommands.begin();
+        }
+        long start = FeedMetrics.ENABLED || SlowCommandLog.ENABLED ? System.nanoTime() : 0;
+        boolean known;
+        if (journal != null && batch.isMutating(command)) {
+            journaled = journal.executeAndAppend(batch, command, this, out);
+            known = true;
+        } else {
+            known = executeCommand(batch, command, out);
+        }
+        long elapsed = FeedMetrics.ENABLED || SlowCommandLog.ENABLED ? System.nanoTime() - start : 0;
+        if (FeedMetrics.ENABLED) {
+            feedManager.metrics.recordCommand(batch.code(command), elapsed);
+        }
+        if (SlowCommandLog.ENABLED) {
+            slowCommands.end(batch, command, elapsed);
+        }
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.set(batch, command);
+                event.commit();
+            }
+        }
+        return known;
+    }
+
+    /**
+     * Waits until every command this handler appended to the journal is on disk, and
+     * compacts the journal if it has grown too large. Does nothing without a journal.
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    void sync() throws IOException {
+        if (journal != null) {
+            journal.awaitDurable(journaled);
+            journal.compactIfNeeded();
+        }
+    }
+
+    /**
+     * Executes one command of a batch. The result is not ended with a line break.
+     *
+     * @param batch   the batch holding the command
+     * @param command the position of the command in the batch
+     * @param out     the sink receiving the result
+     * @return true if a result was written, false for an unknown command
+     */
+    boolean executeCommand(CommandBatch batch, int command, OutputSink out) {
+        // Handle each command type
+        switch (batch.code(command)) {
+            case CommandBatch.CREATE_USER:
+                // Create a new user
+                feedManager.createUser(batch.id(command, 0), out);
+                return true;
+
+            case CommandBatch.FOLLOW_USER:
+                // Make one user follow another
+                feedManager.followUser(batch.id(command, 0), batch.id(command, 1), out);
+                return true;
+
+            case CommandBatch.UNFOLLOW_USER:
+                // Make one user unfollow another
+                feedManager.unfollowUser(batch.id(command, 0), batch.id(command, 1), out);
+                return true;
+
+            case CommandBatch.CREATE_POST:
+                // Create a new post for a user
+                feedManager.createPost(batch.id(command, 0), batch.id(command, 1), batch.id(command, 2), out);
+                return true;
+
+            case CommandBatch.SEE_POST:
+                // Mark a post as seen by a user
+                feedManager.seePost(batch.id(command, 0), batch.id(command, 1), out);
+                return true;
+
+            case CommandBatch.SEE_ALL_POSTS_FROM_USER:
+                // Mark all posts of one user as seen by another user
+                feedManager.seeAllPostsFromUser(batch.id(command, 0), batch.id(command, 1), out);
+                return true;
+
+            case CommandBatch.TOGGLE_LIKE:
+                // Toggle like/unlike status for a post by a user
+                feedManager.toggleLike(batch.id(command, 0), batch.id(command, 1), out);
+                return true;
+
+            case CommandBatch.GENERATE_FEED:
+                // Generate a feed for a user
+                feedManager.generateFeed(batch.id(command, 0), batch.number(command), out);
+                return true;
+
+            case CommandBatch.SCROLL_THROUGH_FEED:
+                // Process a user's scrolling through the feed
+                likeFlags = batch.copyLikeFlags(command, likeFlags);
+                feedManager.scrollThroughFeed(batch.id(command, 0), batch.number(command), likeFlags, out);
+                return true;
+
+            case CommandBatch.GENERATE_FEEDS:
+                // Generate the feeds of many users in parallel
+                feedManager.generateFeeds(batch.idList(command), batch.number(command), out);
+                return true;
+
+            case CommandBatch.SORT_POSTS:
+                // Sort a user's posts by likes
+                feedManager.sortPosts(batch.id(command, 0), out);
+                return true;
+
+            default:
+                // Handle unknown commands
+                return false;
+        }
+    }
+
+    /**
+     * A block of output bytes on its way to the writer thread.
+     */
+    private static class OutputChunk {
+        private final byte[] bytes = new byte[CHUNK_SIZE];
+
+        // Number of bytes in use; -1 marks the end of the output
+        private int length;
+    }
+
+    /**
+     * The stream behind the executor's output sink. Every write fills free chunks and
+     * queues them for the writer thread; closing queues the end marker.
+     */
+    private static class ChunkStream extends OutputStream {
+        private final MyRingBuffer freeChunks;
+        private final MyRingBuffer filledChunks;
+
+        ChunkStream(MyRingBuffer freeChunks, MyRingBuffer filledChunks) {
+            this.freeChunks = freeChunks;
+            this.filledChunks = filledChunks;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            try {
+                while (length > 0) {
+                    OutputChunk chunk = (OutputChunk) freeChunks.take();
+                    chunk.length = Math.min(length, CHUNK_SIZE);
+                    System.arraycopy(bytes, offset, chunk.bytes, 0, chunk.length);
+                    filledChunks.put(chunk);
+                    offset += chunk.length;
+                    length -= chunk.length;
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                OutputChunk end = (OutputChunk) freeChunks.take();
+                end.length = -1;
+                filledChunks.put(end);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Thread that parses the input into batches. After the last batch it queues an empty
+     * batch as the end marker; a batch that ended with a failure is the last one as well.
+     */
+    private static class ParserStage extends Thread {
+        private final CommandTokenizer tokenizer;
+        private final MyRingBuffer freeBatches;
+        private final MyRingBuffer parsedBatches;
+
+        ParserStage(CommandTokenizer tokenizer, MyRingBuffer freeBatches, MyRingBuffer parsedBatches) {
+            super("command-parser");
+            this.tokenizer = tokenizer;
+            this.freeBatches = freeBatches;
+            this.parsedBatches = parsedBatches;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    CommandBatch batch = (CommandBatch) freeBatches.take();
+                    boolean more = batch.readFrom(tokenizer);
+                    parsedBatches.put(batch);
+                    if (!more || batch.error() != null) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The executor stopped early
+            }
+        }
+    }
+
+    /**
+     * Thread that writes the output chunks in order. After a write error it keeps taking
+     * and recycling chunks until the end marker, so the executor never blocks on it.
+     */
+    private static class WriterStage extends Thread {
+        private final OutputStream output;
+        private final MyRingBuffer freeChunks;
+        private final MyRingBuffer filledChunks;
+
+        // The first write error (null if none)
+        private volatile IOException error;
+
+        WriterStage(OutputStream output, MyRingBuffer freeChunks, MyRingBuffer filledChunks) {
+            super("output-writer");
+            this.output = output;
+            this.freeChunks = freeChunks;
+            this.filledChunks = filledChunks;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    OutputChunk chunk = (OutputChunk) filledChunks.take();
+                    if (chunk.length < 0) {
+                        break;
+                    }
+                    if (error == null) {
+                        try {
+                            output.write(chunk.bytes, 0, chunk.length);
+                        } catch (IOException e) {
+                            error = e;
+                        }
+                    }
+                    freeChunks.put(chunk);
+                }
+                if (error == null) {
+                    output.flush();
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (InterruptedException e) {
+                error = new InterruptedIOException();
+            }
         }
     }
 }
@@ -0,0 +1,267 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Drives a {@link CommandServer} from many connections and reports throughput and latency
+ * percentiles.
+ *
+ * Every connection first creates its own users and their posts, then sends a random command
+ * mix (follows, likes, seen posts, feeds, scrolls, sorts) over users of all connections.
+ * Up to a given number of commands are in flight per connection: a sender thread writes
+ * commands while the window has room, and a receiver thread reads the results (each ended
+ * by an empty line) and records the time from sending to the end of the result. A window
+ * of 1 is a client that waits for every result; larger windows pipeline.
+ *
+ * Usage: java LoadGenerator [port] [connections] [commandsPerConnection] [window] [usersPerConnection]
+ */
+public class LoadGenerator {
+
+    public static void main(String[] args) throws InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : CommandServer.DEFAULT_PORT;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int commands = args.length > 2 ? Integer.parseInt(args[2]) : 50000;
+        int window = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+        int usersPerConnection = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+
+        Client[] clients = new Client[connections];
+        for (int c = 0; c < connections; c++) {
+            clients[c] = new Client(port, c, connections, usersPerConnection, commands, Math.max(1, window));
+        }
+
+        // Users and posts are created first, the measured command mix runs after that
+        run(clients, true);
+        long start = System.nanoTime();
+        run(clients, false);
+        long elapsed = System.nanoTime() - start;
+
+        long[] latencies = new long[connections * commands];
+        int count = 0;
+        for (Client client : clients) {
+            if (client.error != null) {
+                System.out.println("Connection " + client.connection + " failed: " + client.error);
+                System.exit(1);
+            }
+            for (int i = 0; i < commands; i++) {
+                latencies[count++] = client.latencies.get(i);
+            }
+        }
+        Arrays.sort(latencies);
+
+        System.out.println("Connections: " + connections + ", window: " + window
+                + ", commands: " + (long) connections * commands);
+        System.out.println("Command mix took " + elapsed / 1000000 + " ms ("
+                + (long) connections * commands * 1000000000L / Math.max(1, elapsed) + " commands/s)");
+        System.out.println("Latency (us): p50 " + percentile(latencies, 0.50)
+                + ", p90 " + percentile(latencies, 0.90)
+                + ", p99 " + percentile(latencies, 0.99)
+                + ", p99.9 " + percentile(latencies, 0.999)
+                + ", max " + latencies[latencies.length - 1] / 1000);
+    }
+
+    /**
+     * Runs one phase on every client and waits for all of them.
+     *
+     * @param clients the clients
+     * @param setup   true for the setup phase, false for the command mix
+     * @throws InterruptedException if the wait is interrupted
+     */
+    private static void run(Client[] clients, boolean setup) throws InterruptedException {
+        Thread[] threads = new Thread[clients.length];
+        for (int c = 0; c < clients.length; c++) {
+            Client client = clients[c];
+            threads[c] = new Thread(setup ? client::setup : client::mix, "load-" + c);
+            threads[c].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Gets a percentile of sorted latencies.
+     *
+     * @param sorted   the latencies in nanoseconds, in ascending order
+     * @param fraction the percentile as a fraction (0 to 1)
+     * @return the latency in microseconds
+     */
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1000;
+    }
+
+    /**
+     * One connection with its own users, random source and latency record.
+     */
+    private static class Client {
+        private final int port;
+        private final int connection;
+        private final int connections;
+        private final int usersPerConnection;
+        private final int commands;
+        private final int window;
+        private final Random random;
+
+        // Sending time of every command of the mix, replaced by its latency once answered
+        private final AtomicLongArray latencies;
+
+        // The failure that stopped the client (null if none)
+        private volatile Exception error;
+
+        Client(int port, int connection, int connections, int usersPerConnection, int commands, int window) {
+            this.port = port;
+            this.connection = connection;
+            this.connections = connections;
+            this.usersPerConnection = usersPerConnection;
+            this.commands = commands;
+            this.window = window;
+            this.random = new Random(42 + connection);
+            this.latencies = new AtomicLongArray(commands);
+        }
+
+        /**
+         * Creates this connection's users with two posts each, waiting for every result.
+         */
+        void setup() {
+            try (Socket socket = connect()) {
+                BufferedWriter writer = writer(socket);
+                BufferedReader reader = reader(socket);
+                for (int u = 0; u < usersPerConnection; u++) {
+                    String user = userId(connection, u);
+                    writer.write("create_user " + user + "\n");
+                    writer.write("create_post " + user + " " + postId(connection, u, 0) + " hello\n");
+                    writer.write("create_post " + user + " " + postId(connection, u, 1) + " world\n");
+                    writer.flush();
+                    for (int i = 0; i < 3; i++) {
+                        skipResult(reader);
+                    }
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        /**
+         * Sends the command mix with up to {@link #window} commands in flight, reading the
+         * results on a second thread.
+         */
+        void mix() {
+            try (Socket socket = connect()) {
+                BufferedWriter writer = writer(socket);
+                BufferedReader reader = reader(socket);
+                Semaphore inFlight = new Semaphore(window);
+
+                Thread receiver = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < commands; i++) {
+                            skipResult(reader);
+                            latencies.set(i, System.nanoTime() - latencies.get(i));
+                            inFlight.release();
+                        }
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }, "load-receiver-" + connection);
+                receiver.start();
+
+                try {
+                    for (int i = 0; i < commands; i++) {
+                        // Send what is queued before waiting for room in the window
+                        if (!inFlight.tryAcquire()) {
+                            writer.flush();
+                            inFlight.acquire();
+                        }
+                        latencies.set(i, System.nanoTime());
+                        writer.write(nextCommand());
+                        if (window == 1) {
+                            writer.flush();
+                        }
+                    }
+                    writer.flush();
+                    receiver.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } catch (IOException | UncheckedIOException e) {
+                error = e;
+            }
+        }
+
+        /**
+         * Picks the next command of the mix, over the users and posts of every connection.
+         *
+         * @return the command line
+         */
+        private String nextCommand() {
+            String user = userId(connection, random.nextInt(usersPerConnection));
+            int other = random.nextInt(connections);
+            int otherUser = random.nextInt(usersPerConnection);
+            String post = postId(other, otherUser, random.nextInt(2));
+
+            int choice = random.nextInt(100);
+            if (choice < 15) {
+                return "follow_user " + user + " " + userId(other, otherUser) + "\n";
+            } else if (choice < 20) {
+                return "unfollow_user " + user + " " + userId(other, otherUser) + "\n";
+            } else if (choice < 45) {
+                return "toggle_like " + user + " " + post + "\n";
+            } else if (choice < 55) {
+                return "see_post " + user + " " + post + "\n";
+            } else if (choice < 85) {
+                return "generate_feed " + user + " 10\n";
+            } else if (choice < 95) {
+                return "scroll_through_feed " + user + " 3 1 0 1\n";
+            } else {
+                return "sort_posts " + userId(other, otherUser) + "\n";
+            }
+        }
+
+        private Socket connect() throws IOException {
+            Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+
+        private static BufferedWriter writer(Socket socket) throws IOException {
+            return new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 1 << 14);
+        }
+
+        private static BufferedReader reader(Socket socket) throws IOException {
+            return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 1 << 14);
+        }
+
+        /**
+         * Reads one result, up to and including the empty line that ends it.
+         *
+         * @param reader the reader of the connection
+         * @throws IOException if the connection fails or ends early
+         */
+        private static void skipResult(BufferedReader reader) throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null) {
+                    throw new IOException("Connection closed before the result ended");
+                }
+            } while (!line.isEmpty());
+        }
+
+        private static String userId(int connection, int user) {
+            return "c" + connection + "u" + user;
+        }
+
+        private static String postId(int connection, int user, int post) {
+            return "c" + connection + "u" + user + "p" + post;
+        }
+    }
+}
@@ -0,0 +1,428 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs whole command files through FileHandler over a matrix of generated workloads and
+ * reports how throughput scales with the number of users, the follow degree and the number
+ * of posts.
+ *
+ * Every workload is written by {@link WorkloadGenerator} with a fixed seed, then run
+ * end to end (parse, execute, write) several times in FileHandler's default mode, after
+ * one unmeasured warm-up workload. The fastest run gives the commands per second; the peak
+ * heap and GC pauses are taken over all runs. A further sequential pass times every
+ * command on its own to split the time per command type (timer overhead included).
+ *
+ * The results are written as CSV, one row per workload. Given a baseline file written by an
+ * earlier run on the same machine, every workload is compared against it and slowdowns
+ * beyond the threshold are flagged; the exit status is then 1.
+ *
+ * Usage: java MacroBenchmark &lt;resultsFile&gt; [baselineFile|-] [threshold] [scale]
+ *
+ * The threshold is a fraction (0.1 flags changes over 10%); the scale multiplies the
+ * 1,000,000 commands of every workload.
+ */
+public class MacroBenchmark {
+    // End-to-end runs per workload; the fastest one is reported
+    private static final int RUNS = 3;
+
+    private static final long COMMANDS = 1000000;
+
+    private static final double DEFAULT_THRESHOLD = 0.10;
+
+    // Command types run fewer times than this in a workload are not compared
+    private static final long MIN_COMPARED_COUNT = 1000;
+
+    // Users created before the mix, as a fraction of the commands
+    private static final double[] USER_FRACTIONS = {0.001, 0.01, 0.1};
+
+    // Mixes by name: the generator's balanced mix, one heavy on follows, one heavy on posts
+    private static final String[][] MIXES = {
+            {"balanced", "balanced"},
+            {"follow-heavy", "create_user:2,follow_user:40,unfollow_user:3,create_post:5,see_post:5,"
+                    + "see_all_posts_from_user:2,toggle_like:18,generate_feed:20,scroll_through_feed:3,sort_posts:2"},
+            {"post-heavy", "create_user:2,follow_user:8,unfollow_user:2,create_post:35,see_post:8,"
+                    + "see_all_posts_from_user:2,toggle_like:20,generate_feed:18,scroll_through_feed:3,sort_posts:2"}
+    };
+
+    private static final long SEED = 42;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java MacroBenchmark <resultsFile> [baselineFile|-] [threshold] [scale]");
+            System.exit(2);
+        }
+        String resultsFile = args[0];
+        String baselineFile = args.length > 1 && !args[1].equals("-") ? args[1] : null;
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+        double scale = args.length > 3 ? Double.parseDouble(args[3]) : 1;
+        long commands = Math.max(1000, (long) (COMMANDS * scale));
+
+        // Read the baseline first, so a bad path fails before the long runs
+        Map<String, Map<String, String>> baseline = baselineFile != null ? readResults(baselineFile) : null;
+
+        List<Result> results = new ArrayList<>();
+        Path workloadFile = Files.createTempFile("workload", ".txt");
+        try {
+            // Warm up the JIT on the first workload, so that it is not measured cold
+            run("warmup", commands, (int) Math.max(1, commands * USER_FRACTIONS[0]), MIXES[0][1], workloadFile);
+
+            for (double userFraction : USER_FRACTIONS) {
+                for (String[] mix : MIXES) {
+                    int users = (int) Math.max(1, commands * userFraction);
+                    Result result = run("u" + users + "-" + mix[0], commands, users, mix[1], workloadFile);
+                    results.add(result);
+                    System.out.printf("%-22s %,12.0f commands/s  peak heap %,6d MB  GC %4d pauses, %,6d ms total, %,5d ms max%n",
+                            result.workload, result.commandsPerSecond, result.peakHeap >> 20,
+                            result.gcPauses, result.gcTotalMillis, result.gcMaxMillis);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(workloadFile);
+        }
+
+        writeResults(resultsFile, results);
+        System.out.println("Results written to " + resultsFile);
+
+        if (baseline != null && compare(results, baseline, threshold) > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Generates one workload and measures it.
+     *
+     * @param name         the name of the workload
+     * @param commands     the number of commands
+     * @param users        the number of users created before the mix
+     * @param mix          the command mix, as taken by {@link WorkloadGenerator}
+     * @param workloadFile the file to write the commands to
+     * @return the measurements
+     * @throws IOException if the workload file cannot be written or read
+     */
+    private static Result run(String name, long commands, int users, String mix, Path workloadFile)
+            throws IOException {
+        try (OutputSink out = new OutputSink(new FileOutputStream(workloadFile.toFile()), 1 << 20)) {
+            new WorkloadGenerator(SEED, WorkloadGenerator.parseMix(mix), 1.0, 10).generate(commands, users, out);
+        }
+
+        Result result = new Result(name, commands, users, mix);
+        result.mode = FileHandler.defaultMode();
+        Path outputFile = Files.createTempFile("results", ".txt");
+        PauseRecorder pauses = new PauseRecorder();
+        try {
+            System.gc();
+            resetPeakHeap();
+            pauses.start();
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                new FileHandler().processInputFile(workloadFile.toString(), outputFile.toString(), result.mode);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            result.peakHeap = peakHeap();
+            pauses.stop();
+            result.commandsPerSecond = commands * 1e9 / Math.max(1, best);
+            result.gcPauses = pauses.count;
+            result.gcTotalMillis = pauses.totalMillis;
+            result.gcMaxMillis = pauses.maxMillis;
+        } finally {
+            Files.deleteIfExists(outputFile);
+        }
+
+        timeCommands(workloadFile, result);
+        return result;
+    }
+
+    /**
+     * Executes a workload once more on the calling thread, timing every command.
+     *
+     * @param workloadFile the commands
+     * @param result       the result receiving the count and time per command type
+     * @throws IOException if the file cannot be read
+     */
+    private static void timeCommands(Path workloadFile, Result result) throws IOException {
+        FileHandler handler = new FileHandler();
+        OutputSink out = new OutputSink(OutputStream.nullOutputStream());
+        CommandBatch batch = new CommandBatch();
+        try (FileInputStream input = new FileInputStream(workloadFile.toFile())) {
+            CommandTokenizer tokenizer = new CommandTokenizer(input);
+            while (batch.readFrom(tokenizer)) {
+                for (int i = 0; i < batch.size(); i++) {
+                    int code = batch.code(i);
+                    long start = System.nanoTime();
+                    handler.executeCommand(batch, i, out);
+                    out.newLine();
+                    long elapsed = System.nanoTime() - start;
+                    if (code >= 0 && code < result.commandNanos.length) {
+                        result.commandCounts[code]++;
+                        result.commandNanos[code] += elapsed;
+                    }
+                }
+                if (batch.error() != null) {
+                    throw new IOException("Workload cannot be parsed", batch.error());
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares results against a baseline and prints every change; changes for the worse
+     * beyond the threshold are flagged as regressions.
+     *
+     * @param results   the results of this run
+     * @param baseline  the baseline rows by workload name
+     * @param threshold the tolerated relative change
+     * @return the number of regressions
+     */
+    private static int compare(List<Result> results, Map<String, Map<String, String>> baseline, double threshold) {
+        System.out.printf("%nComparison with the baseline (threshold %.0f%%):%n", threshold * 100);
+        int regressions = 0;
+        for (Result result : results) {
+            Map<String, String> before = baseline.get(result.workload);
+            if (before == null) {
+                System.out.println(result.workload + ": not in the baseline");
+                continue;
+            }
+            Map<String, String> after = result.row();
+            for (String metric : after.keySet()) {
+                if (!before.containsKey(metric) || !isCompared(metric, after)) {
+                    continue;
+                }
+                double old = Double.parseDouble(before.get(metric));
+                double now = Double.parseDouble(after.get(metric));
+                if (old <= 0) {
+                    continue;
+                }
+                // Throughput falls when things get worse, every other metric rises
+                double change = (now - old) / old;
+                double worse = metric.equals("commands_per_second") ? -change : change;
+                boolean regression = worse > threshold;
+                regressions += regression ? 1 : 0;
+                System.out.printf("%-22s %-34s %14.1f -> %14.1f  %+7.1f%%%s%n", result.workload, metric,
+                        old, now, change * 100, regression ? "  REGRESSION" : "");
+            }
+        }
+        System.out.println(regressions == 0 ? "No regressions" : regressions + " regression(s)");
+        return regressions;
+    }
+
+    /**
+     * Tells whether a metric of a result row is compared against the baseline: timings,
+     * heap and GC, but not the workload description, and per-command times only for
+     * commands run often enough to be stable.
+     */
+    private static boolean isCompared(String metric, Map<String, String> row) {
+        if (metric.startsWith("ns_per_")) {
+            String command = metric.substring("ns_per_".length());
+            return Long.parseLong(row.get("count_" + command)) >= MIN_COMPARED_COUNT;
+        }
+        return metric.equals("commands_per_second") || metric.equals("peak_heap_bytes")
+                || metric.equals("gc_total_ms");
+    }
+
+    /**
+     * Writes results as CSV with a header line.
+     */
+    private static void writeResults(String file, List<Result> results) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            writer.println(String.join(",", results.get(0).row().keySet()));
+            for (Result result : results) {
+                writer.println(String.join(",", result.row().values()));
+            }
+        }
+    }
+
+    /**
+     * Reads results written by {@link #writeResults}.
+     *
+     * @param file the CSV file
+     * @return the rows by workload name, every row by column name
+     * @throws IOException if the file cannot be read
+     */
+    private static Map<String, Map<String, String>> readResults(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        Map<String, Map<String, String>> rows = new HashMap<>();
+        if (lines.isEmpty()) {
+            return rows;
+        }
+        String[] header = lines.get(0).split(",");
+        for (String line : lines.subList(1, lines.size())) {
+            String[] values = line.split(",");
+            Map<String, String> row = new HashMap<>();
+            for (int i = 0; i < header.length && i < values.length; i++) {
+                row.put(header[i], values[i]);
+            }
+            rows.put(row.get("workload"), row);
+        }
+        return rows;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Gets the sum of the peak usage of the heap pools since the last reset. The pools peak
+     * at different times, so this is an upper bound.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * The measurements of one workload.
+     */
+    private static class Result {
+        final String workload;
+        final long commands;
+        final int users;
+        final String mix;
+        int mode;
+        double commandsPerSecond;
+        long peakHeap;
+        long gcPauses;
+        long gcTotalMillis;
+        long gcMaxMillis;
+
+        // Count and total time of every command type, indexed by command code
+        final long[] commandCounts = new long[WorkloadGenerator.COMMANDS.length];
+        final long[] commandNanos = new long[WorkloadGenerator.COMMANDS.length];
+
+        Result(String workload, long commands, int users, String mix) {
+            this.workload = workload;
+            this.commands = commands;
+            this.users = users;
+            this.mix = mix;
+        }
+
+        /**
+         * Gets the result as CSV columns, in a fixed order.
+         */
+        Map<String, String> row() {
+            Map<String, String> row = new LinkedHashMap<>();
+            row.put("workload", workload);
+            row.put("commands", Long.toString(commands));
+            row.put("initial_users", Integer.toString(users));
+            row.put("mode", Integer.toString(mode));
+            row.put("commands_per_second", String.format("%.1f", commandsPerSecond));
+            row.put("peak_heap_bytes", Long.toString(peakHeap));
+            row.put("gc_pauses", Long.toString(gcPauses));
+            row.put("gc_total_ms", Long.toString(gcTotalMillis));
+            row.put("gc_max_ms", Long.toString(gcMaxMillis));
+            for (int i = 0; i < commandCounts.length; i++) {
+                String command = WorkloadGenerator.COMMANDS[i];
+                row.put("count_" + command, Long.toString(commandCounts[i]));
+                row.put("ns_per_" + command, String.format("%.1f",
+                        commandCounts[i] == 0 ? 0.0 : (double) commandNanos[i] / commandCounts[i]));
+            }
+            return row;
+        }
+    }
+
+    /**
+     * Counts the stop-the-world collections reported by the GC beans while started.
+     * Concurrent cycles are not pauses and are left out.
+     */
+    private static class PauseRecorder implements NotificationListener {
+        // Collections announced by the beans since start, and those already received
+        private long expected;
+        private long received;
+
+        long count;
+        long totalMillis;
+        long maxMillis;
+
+        private long[] startCounts;
+
+        void start() {
+            List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+            startCounts = new long[beans.size()];
+            for (int i = 0; i < beans.size(); i++) {
+                startCounts[i] = beans.get(i).getCollectionCount();
+                ((NotificationEmitter) beans.get(i)).addNotificationListener(this, null, null);
+            }
+        }
+
+        /**
+         * Stops recording once every collection counted by the beans has been received;
+         * notifications arrive on another thread, shortly after the collection.
+         */
+        void stop() {
+            List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+            long collections = 0;
+            for (int i = 0; i < beans.size(); i++) {
+                collections += beans.get(i).getCollectionCount() - startCounts[i];
+            }
+            synchronized (this) {
+                expected = collections;
+                long deadline = System.currentTimeMillis() + 1000;
+                while (received < expected && System.currentTimeMillis() < deadline) {
+                    try {
+                        wait(Math.max(1, deadline - System.currentTimeMillis()));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            for (GarbageCollectorMXBean bean : beans) {
+                try {
+                    ((NotificationEmitter) bean).removeNotificationListener(this);
+                } catch (ListenerNotFoundException e) {
+                    // Already removed
+                }
+            }
+        }
+
+        @Override
+        public synchronized void handleNotification(Notification notification, Object handback) {
+            if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            received++;
+            if (!info.getGcAction().contains("concurrent") && !info.getGcName().contains("Concurrent")
+                    && !info.getGcName().contains("Cycles")) {
+                long duration = info.getGcInfo().getDuration();
+                count++;
+                totalMillis += duration;
+                maxMillis = Math.max(maxMillis, duration);
+            }
+            notifyAll();
+        }
+    }
+}
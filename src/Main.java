@@ -4,9 +4,37 @@ public class Main {
         String inputFile = args[0];
         String outputFile = args[1];
 
+        // Optional processing mode: "sequential", "pipelined" or "parallel" (chosen by processor count if absent),
+        // and "--metrics" to print the command latencies and counters to standard error at the end
+        int mode = FileHandler.defaultMode();
+        boolean metrics = false;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "sequential":
+                    mode = FileHandler.SEQUENTIAL;
+                    break;
+                case "pipelined":
+                    mode = FileHandler.PIPELINED;
+                    break;
+                case "parallel":
+                    mode = FileHandler.PARALLEL;
+                    break;
+                case "--metrics":
+                    metrics = true;
+                    break;
+                default:
+                    System.err.println("Unknown mode: " + args[i]);
+                    return;
+            }
+        }
+
         // Create a FileHandler instance to process the input file
         FileHandler fileHandler = new FileHandler();
         // Process the input file and write results to the output file
-        fileHandler.processInputFile(inputFile, outputFile);
+        fileHandler.processInputFile(inputFile, outputFile, mode);
+
+        if (metrics) {
+            fileHandler.feedManager().reportMetrics(System.err);
+        }
     }
 }
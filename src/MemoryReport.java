@@ -0,0 +1,85 @@
+import java.io.OutputStream;
+import java.lang.ref.Reference;
+import java.util.Random;
+
+/**
+ * Estimates how many heap bytes every user and post costs in a FeedManager.
+ * Builds a population through the public FeedManager API and measures the heap growth of
+ * each phase after a full garbage collection.
+ *
+ * Usage: java MemoryReport [users] [followsPerUser] [postsPerUser] [likesPerPost]
+ */
+public class MemoryReport {
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int follows = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int postsPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        int likes = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        int posts = users * postsPerUser;
+        Random random = new Random(42);
+
+        // Generate the IDs up front so only the stored strings are measured
+        String[] userIds = new String[users];
+        for (int i = 0; i < users; i++) {
+            userIds[i] = "user" + (100000000 + i);
+        }
+        String[] postIds = new String[posts];
+        for (int i = 0; i < posts; i++) {
+            postIds[i] = "post" + (100000000 + i);
+        }
+
+        FeedManager feedManager = new FeedManager();
+        OutputSink sink = new OutputSink(OutputStream.nullOutputStream()); // Results are discarded
+        long start = usedHeap();
+
+        for (int i = 0; i < users; i++) {
+            feedManager.createUser(userIds[i], sink);
+        }
+        long afterUsers = usedHeap();
+
+        for (int i = 0; i < users; i++) {
+            for (int j = 0; j < follows; j++) {
+                feedManager.followUser(userIds[i], userIds[random.nextInt(users)], sink);
+            }
+        }
+        long afterFollows = usedHeap();
+
+        for (int i = 0; i < posts; i++) {
+            feedManager.createPost(userIds[i % users], postIds[i], "content", sink);
+        }
+        long afterPosts = usedHeap();
+
+        for (int i = 0; i < posts; i++) {
+            for (int j = 0; j < likes; j++) {
+                feedManager.toggleLike(userIds[random.nextInt(users)], postIds[i], sink);
+            }
+        }
+        long afterLikes = usedHeap();
+
+        System.out.println("Users: " + users + ", follows per user: " + follows
+                + ", posts: " + posts + ", likes per post: " + likes);
+        System.out.println("Bytes per user (created):        " + (afterUsers - start) / users);
+        System.out.println("Bytes per user (with follows):   " + (afterFollows - start) / users);
+        System.out.println("Bytes per post (created):        " + (afterPosts - afterFollows) / posts);
+        System.out.println("Bytes per post (with likes):     " + (afterLikes - afterFollows) / posts);
+
+        // Keep the manager reachable until every phase has been measured
+        Reference.reachabilityFence(feedManager);
+    }
+
+    /**
+     * Measures the heap in use after a full garbage collection.
+     *
+     * @return the number of bytes in use
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
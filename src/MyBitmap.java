@@ -0,0 +1,320 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A compressed set of non-negative int values in the style of a Roaring bitmap.
+ * Values are split into a 16-bit high part, which selects a container, and a 16-bit low part
+ * stored in that container. A container with few values is a sorted char array; once it
+ * holds more than 4096 values it becomes a 65536-bit bitmap, which is smaller at that point.
+ * Post numbers are dense and a user tends to see posts created around the same time, so
+ * seen sets end up in a handful of small containers.
+ */
+public class MyBitmap {
+    // Largest number of values kept in an array container
+    private static final int ARRAY_LIMIT = 4096;
+
+    // Number of longs in a bitmap container (65536 bits)
+    private static final int BITMAP_WORDS = 1024;
+
+    // High parts of the containers, sorted ascending (null until the first value is added)
+    private char[] keys;
+
+    // Containers, each either a sorted char[] of low parts or a long[] bitmap
+    private Object[] containers;
+
+    // Number of values in every container
+    private int[] cardinalities;
+
+    // Number of containers in use
+    private int size;
+
+    /**
+     * Constructs an empty bitmap.
+     */
+    public MyBitmap() {
+        this.size = 0;
+    }
+
+    /**
+     * Adds a value to the bitmap. Does nothing if the value is already present.
+     *
+     * @param value the value to add (must not be negative)
+     * @return true if the value was added, false if it was already present
+     */
+    public boolean add(int value) {
+        char high = (char) (value >>> 16);
+        char low = (char) value;
+
+        int index = findContainer(high);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, high, new char[2], 0);
+        }
+
+        Object container = containers[index];
+        if (container instanceof long[]) {
+            long[] bitmap = (long[]) container;
+            long bit = 1L << low;
+            if ((bitmap[low >>> 6] & bit) != 0) {
+                return false;
+            }
+            bitmap[low >>> 6] |= bit;
+            cardinalities[index]++;
+            return true;
+        }
+
+        char[] array = (char[]) container;
+        int count = cardinalities[index];
+        int position = binarySearch(array, count, low);
+        if (position >= 0) {
+            return false;
+        }
+        position = -position - 1;
+
+        if (count == ARRAY_LIMIT) {
+            // The container is full, switch it to a bitmap
+            long[] bitmap = toBitmap(array, count);
+            bitmap[low >>> 6] |= 1L << low;
+            containers[index] = bitmap;
+            cardinalities[index] = count + 1;
+            return true;
+        }
+
+        if (count == array.length) {
+            char[] newArray = new char[Math.min(ARRAY_LIMIT, array.length * 2)];
+            System.arraycopy(array, 0, newArray, 0, count);
+            array = newArray;
+            containers[index] = array;
+        }
+
+        System.arraycopy(array, position, array, position + 1, count - position);
+        array[position] = low;
+        cardinalities[index] = count + 1;
+        return true;
+    }
+
+    /**
+     * Checks whether a value is in the bitmap.
+     *
+     * @param value the value to look for
+     * @return true if the value is present, false otherwise
+     */
+    public boolean contains(int value) {
+        int index = findContainer((char) (value >>> 16));
+        if (index < 0) {
+            return false;
+        }
+
+        char low = (char) value;
+        Object container = containers[index];
+        if (container instanceof long[]) {
+            return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+        }
+        return binarySearch((char[]) container, cardinalities[index], low) >= 0;
+    }
+
+    /**
+     * Returns all values of the bitmap.
+     *
+     * @return an array with every value, in ascending order
+     */
+    public int[] toArray() {
+        int[] values = new int[cardinality()];
+        int position = 0;
+        for (int i = 0; i < size; i++) {
+            int high = keys[i] << 16;
+            Object container = containers[i];
+            if (container instanceof long[]) {
+                long[] bitmap = (long[]) container;
+                for (int word = 0; word < BITMAP_WORDS; word++) {
+                    for (long bits = bitmap[word]; bits != 0; bits &= bits - 1) {
+                        values[position++] = high | (word << 6) | Long.numberOfTrailingZeros(bits);
+                    }
+                }
+            } else {
+                char[] array = (char[]) container;
+                for (int j = 0; j < cardinalities[i]; j++) {
+                    values[position++] = high | array[j];
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Gets the number of values in the bitmap.
+     *
+     * @return the number of values
+     */
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += cardinalities[i];
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of bytes {@link #writeTo(ByteBuffer)} writes for this bitmap.
+     *
+     * @return the serialized size in bytes
+     */
+    public int serializedSize() {
+        int bytes = 4;
+        for (int i = 0; i < size; i++) {
+            bytes += 7 + (containers[i] instanceof long[] ? 8 * BITMAP_WORDS : 2 * cardinalities[i]);
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the bitmap container by container: the number of containers, then for every
+     * container its high part, its kind (0 for an array, 1 for a bitmap), its cardinality
+     * and either its low parts or its bitmap words.
+     *
+     * @param buffer the buffer receiving {@link #serializedSize()} bytes
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putInt(size);
+        for (int i = 0; i < size; i++) {
+            buffer.putChar(keys[i]);
+            buffer.put((byte) (containers[i] instanceof long[] ? 1 : 0));
+            buffer.putInt(cardinalities[i]);
+            if (containers[i] instanceof long[]) {
+                buffer.asLongBuffer().put((long[]) containers[i]);
+                buffer.position(buffer.position() + 8 * BITMAP_WORDS);
+            } else {
+                buffer.asCharBuffer().put((char[]) containers[i], 0, cardinalities[i]);
+                buffer.position(buffer.position() + 2 * cardinalities[i]);
+            }
+        }
+    }
+
+    /**
+     * Replaces the contents of an empty bitmap with a bitmap written by
+     * {@link #writeTo(ByteBuffer)}. The containers are copied in bulk, without adding values
+     * one by one.
+     *
+     * @param buffer the buffer positioned at the serialized bitmap
+     */
+    public void readFrom(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count == 0) {
+            return;
+        }
+        keys = new char[count];
+        containers = new Object[count];
+        cardinalities = new int[count];
+        size = count;
+        for (int i = 0; i < count; i++) {
+            keys[i] = buffer.getChar();
+            boolean bitmapContainer = buffer.get() != 0;
+            cardinalities[i] = buffer.getInt();
+            if (bitmapContainer) {
+                long[] bitmap = new long[BITMAP_WORDS];
+                buffer.asLongBuffer().get(bitmap);
+                buffer.position(buffer.position() + 8 * BITMAP_WORDS);
+                containers[i] = bitmap;
+            } else {
+                char[] array = new char[cardinalities[i]];
+                buffer.asCharBuffer().get(array, 0, cardinalities[i]);
+                buffer.position(buffer.position() + 2 * cardinalities[i]);
+                containers[i] = array;
+            }
+        }
+    }
+
+    /**
+     * Finds the container for a high part.
+     *
+     * @param high the high 16 bits of a value
+     * @return the container index, or (-(insertion point) - 1) if there is no such container
+     */
+    private int findContainer(char high) {
+        int low = 0;
+        int highIndex = size - 1;
+        while (low <= highIndex) {
+            int middle = (low + highIndex) >>> 1;
+            if (keys[middle] < high) {
+                low = middle + 1;
+            } else if (keys[middle] > high) {
+                highIndex = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Inserts a new container, keeping the high parts sorted.
+     *
+     * @param index       the position of the new container
+     * @param high        the high 16 bits the container is responsible for
+     * @param container   the container
+     * @param cardinality the number of values in the container
+     */
+    private void insertContainer(int index, char high, Object container, int cardinality) {
+        if (keys == null || size == keys.length) {
+            // Most bitmaps only ever need one container, so start with room for exactly one
+            int length = keys == null ? 1 : size * 2;
+            char[] newKeys = new char[length];
+            Object[] newContainers = new Object[length];
+            int[] newCardinalities = new int[length];
+            if (keys != null) {
+                System.arraycopy(keys, 0, newKeys, 0, size);
+                System.arraycopy(containers, 0, newContainers, 0, size);
+                System.arraycopy(cardinalities, 0, newCardinalities, 0, size);
+            }
+            keys = newKeys;
+            containers = newContainers;
+            cardinalities = newCardinalities;
+        }
+
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(containers, index, containers, index + 1, size - index);
+        System.arraycopy(cardinalities, index, cardinalities, index + 1, size - index);
+        keys[index] = high;
+        containers[index] = container;
+        cardinalities[index] = cardinality;
+        size++;
+    }
+
+    /**
+     * Searches the first count values of a sorted array container.
+     *
+     * @param array the array container
+     * @param count the number of values in use
+     * @param value the low 16 bits to look for
+     * @return the position of the value, or (-(insertion point) - 1) if it is absent
+     */
+    private static int binarySearch(char[] array, int count, char value) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (array[middle] < value) {
+                low = middle + 1;
+            } else if (array[middle] > value) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Converts an array container into a bitmap container.
+     *
+     * @param array the array container
+     * @param count the number of values in use
+     * @return a bitmap container with the same values
+     */
+    private static long[] toBitmap(char[] array, int count) {
+        long[] bitmap = new long[BITMAP_WORDS];
+        for (int i = 0; i < count; i++) {
+            bitmap[array[i] >>> 6] |= 1L << array[i];
+        }
+        return bitmap;
+    }
+}
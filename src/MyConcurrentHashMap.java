@@ -0,0 +1,364 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A hash map from String keys to values that many threads can read and write at once.
+ * Like {@link MyHashMap} it uses open addressing with linear probing, but every slot holds
+ * an immutable entry (key, hash code and value) in an atomic array, and every change swaps
+ * one slot with a compare-and-set. Lookups take no lock and never retry: a lookup reads at
+ * most one slot per table slot, so it finishes in a bounded number of steps whatever the
+ * writers do.
+ *
+ * A key keeps its slot for the life of a table. Removing a key replaces its entry with one
+ * without a value, and inserting the key again fills that entry back in, so two threads
+ * inserting the same key always meet in the same slot and only one of them wins.
+ *
+ * A full table is replaced by a larger one. The old slots are first frozen one by one
+ * (frozen slots accept no more changes, but lookups still read them), then copied into the
+ * new table, which is published once every slot is copied. Any writer that meets a frozen
+ * slot helps with the copy instead of waiting, so a stalled thread never blocks the others.
+ * Values must not be null.
+ */
+public class MyConcurrentHashMap {
+    private static final double LOAD_FACTOR = 0.75;
+
+    // The current table; replaced as a whole when a resize is published
+    private final AtomicReference<Table> table;
+
+    // Number of keys with a value
+    private final AtomicInteger size;
+
+    /**
+     * Constructs a map able to hold the given number of entries before growing.
+     *
+     * @param initialCapacity the expected number of entries
+     */
+    public MyConcurrentHashMap(int initialCapacity) {
+        this.table = new AtomicReference<>(new Table(MyHashMap.tableSizeFor((int) Math.ceil(initialCapacity / LOAD_FACTOR))));
+        this.size = new AtomicInteger();
+    }
+
+    /**
+     * Looks up the value associated with a key.
+     * Reads one table without locking or retrying; a key inserted into a newer table after
+     * the lookup started may be missed, as the lookup then happened before the insert.
+     *
+     * @param key the key to look for
+     * @return the value, or null if the key is not present
+     */
+    public Object find(CharSequence key) {
+        int hash = MyHashMap.hashFunction(key);
+        Table current = this.table.get();
+
+        for (int probes = 0, index = hash & current.mask; probes <= current.mask; probes++, index = (index + 1) & current.mask) {
+            Entry entry = current.slots.get(index);
+            if (entry == null || entry.key == null) {
+                return null; // The run ends at an empty slot (frozen or not)
+            }
+            if (entry.hash == hash && (entry.key == key || entry.key.contentEquals(key))) {
+                return entry.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether a key is present.
+     *
+     * @param key the key to look for
+     * @return true if the key is present, false otherwise
+     */
+    public boolean contains(CharSequence key) {
+        return this.find(key) != null;
+    }
+
+    /**
+     * Inserts a key-value pair. Does nothing if the key is already present.
+     *
+     * @param key   the key
+     * @param value the value associated with the key
+     */
+    public void insert(String key, Object value) {
+        this.putIfAbsent(key, value);
+    }
+
+    /**
+     * Inserts a key-value pair unless the key is already present, as one atomic step.
+     * Of several threads inserting the same key, exactly one succeeds.
+     *
+     * @param key   the key
+     * @param value the value associated with the key
+     * @return null if the pair was inserted, otherwise the value already present
+     */
+    public Object putIfAbsent(String key, Object value) {
+        int hash = MyHashMap.hashFunction(key);
+        Entry inserted = new Entry(key, hash, value, false);
+
+        while (true) {
+            Table current = this.table.get();
+            int index = hash & current.mask;
+
+            for (int probes = 0; probes <= current.mask; ) {
+                Entry entry = current.slots.get(index);
+
+                if (entry == null) {
+                    if (current.slots.compareAndSet(index, null, inserted)) {
+                        this.size.incrementAndGet();
+                        if (current.used.incrementAndGet() > current.threshold) {
+                            this.resize(current);
+                        }
+                        return null;
+                    }
+                    continue; // Another writer took the slot first, read it again
+                }
+
+                if (entry.frozen) {
+                    break; // A resize is in progress
+                }
+
+                if (entry.hash == hash && entry.key.equals(key)) {
+                    if (entry.value != null) {
+                        return entry.value;
+                    }
+                    // The key was removed earlier, fill its entry back in
+                    if (current.slots.compareAndSet(index, entry, inserted)) {
+                        this.size.incrementAndGet();
+                        return null;
+                    }
+                    continue;
+                }
+
+                index = (index + 1) & current.mask;
+                probes++;
+            }
+
+            // The table is being replaced (or is full): help, then retry in the new table
+            this.resize(current);
+        }
+    }
+
+    /**
+     * Removes a key and its value. Does nothing if the key is not present.
+     * The key keeps its slot until the next resize.
+     *
+     * @param key the key to remove
+     */
+    public void remove(CharSequence key) {
+        int hash = MyHashMap.hashFunction(key);
+
+        while (true) {
+            Table current = this.table.get();
+            int index = hash & current.mask;
+
+            for (int probes = 0; probes <= current.mask; ) {
+                Entry entry = current.slots.get(index);
+
+                if (entry == null || entry.key == null) {
+                    return; // Not present
+                }
+
+                if (entry.frozen) {
+                    break; // A resize is in progress
+                }
+
+                if (entry.hash == hash && (entry.key == key || entry.key.contentEquals(key))) {
+                    if (entry.value == null) {
+                        return; // Already removed
+                    }
+                    if (current.slots.compareAndSet(index, entry, new Entry(entry.key, hash, null, false))) {
+                        this.size.decrementAndGet();
+                        return;
+                    }
+                    continue; // The entry changed, read it again
+                }
+
+                index = (index + 1) & current.mask;
+                probes++;
+            }
+
+            this.resize(current);
+        }
+    }
+
+    /**
+     * Replaces a table with a new one, or helps a replacement already in progress.
+     * The new table doubles the capacity unless most used slots only hold removed keys, in
+     * which case it keeps the capacity and drops them. Returns once the old table is no
+     * longer the current one.
+     *
+     * @param old the table to replace
+     */
+    private void resize(Table old) {
+        Table next = old.next.get();
+        if (next == null) {
+            int capacity = 2 * this.size.get() >= old.threshold ? 2 * old.slots.length() : old.slots.length();
+            Table candidate = new Table(capacity);
+            next = old.next.compareAndSet(null, candidate) ? candidate : old.next.get();
+        }
+
+        // Freeze every slot and copy its entry; every helper walks the whole table, so the
+        // copy is complete as soon as any one of them finishes
+        for (int i = 0; i <= old.mask; i++) {
+            Entry frozen;
+            while (true) {
+                Entry entry = old.slots.get(i);
+                if (entry != null && entry.frozen) {
+                    frozen = entry;
+                    break;
+                }
+                frozen = entry == null ? FROZEN_EMPTY : new Entry(entry.key, entry.hash, entry.value, true);
+                if (old.slots.compareAndSet(i, entry, frozen)) {
+                    break;
+                }
+            }
+
+            if (frozen.key != null && frozen.value != null && !next.copy(frozen)) {
+                // The new table is frozen itself, so it was published with every entry in it
+                return;
+            }
+        }
+
+        this.table.compareAndSet(old, next);
+    }
+
+    /**
+     * Returns all keys in the map. Entries changed during the call may or may not be included.
+     *
+     * @return an array with every key, in table order
+     */
+    public String[] keys() {
+        Table current = this.table.get();
+        String[] keysArray = new String[current.slots.length()];
+        int count = 0;
+
+        for (int i = 0; i <= current.mask; i++) {
+            Entry entry = current.slots.get(i);
+            if (entry != null && entry.value != null) {
+                keysArray[count++] = entry.key;
+            }
+        }
+
+        String[] result = new String[count];
+        System.arraycopy(keysArray, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Returns all values in the map. Entries changed during the call may or may not be included.
+     *
+     * @return an array with every value, in table order
+     */
+    public Object[] values() {
+        Table current = this.table.get();
+        Object[] valuesArray = new Object[current.slots.length()];
+        int count = 0;
+
+        for (int i = 0; i <= current.mask; i++) {
+            Entry entry = current.slots.get(i);
+            if (entry != null && entry.value != null) {
+                valuesArray[count++] = entry.value;
+            }
+        }
+
+        Object[] result = new Object[count];
+        System.arraycopy(valuesArray, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Gets the number of entries in the map.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    // Marks a frozen slot that never held a key
+    private static final Entry FROZEN_EMPTY = new Entry(null, 0, null, true);
+
+    /**
+     * The contents of one slot. Entries never change; a slot changes by getting a new entry.
+     */
+    private static class Entry {
+        private final String key;
+        private final int hash;
+
+        // The value, or null if the key was removed
+        private final Object value;
+
+        // Whether the slot belongs to a table that is being replaced
+        private final boolean frozen;
+
+        Entry(String key, int hash, Object value, boolean frozen) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.frozen = frozen;
+        }
+    }
+
+    /**
+     * One generation of the slot array.
+     */
+    private static class Table {
+        private final AtomicReferenceArray<Entry> slots;
+        private final int mask;
+
+        // Number of slots that hold a key, and the count at which the table is replaced
+        private final AtomicInteger used;
+        private final int threshold;
+
+        // The table replacing this one (null until a resize starts)
+        private final AtomicReference<Table> next;
+
+        Table(int capacity) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+            this.used = new AtomicInteger();
+            this.threshold = (int) (capacity * LOAD_FACTOR);
+            this.next = new AtomicReference<>();
+        }
+
+        /**
+         * Copies a frozen entry of the previous table into this one, unless its key is
+         * already here (copied by another helper, and maybe changed since publication).
+         *
+         * @param frozen the frozen entry to copy
+         * @return true if the key is in this table, false if this table is frozen itself
+         */
+        boolean copy(Entry frozen) {
+            Entry copied = null;
+            int index = frozen.hash & this.mask;
+
+            for (int probes = 0; probes <= this.mask; ) {
+                Entry entry = this.slots.get(index);
+
+                if (entry == null) {
+                    if (copied == null) {
+                        copied = new Entry(frozen.key, frozen.hash, frozen.value, false);
+                    }
+                    if (this.slots.compareAndSet(index, null, copied)) {
+                        this.used.incrementAndGet();
+                        return true;
+                    }
+                    continue;
+                }
+
+                if (entry.frozen) {
+                    return false;
+                }
+                if (entry.hash == frozen.hash && entry.key.equals(frozen.key)) {
+                    return true;
+                }
+
+                index = (index + 1) & this.mask;
+                probes++;
+            }
+
+            // Cannot happen: the table has at least as many slots as the one being copied
+            return true;
+        }
+    }
+}
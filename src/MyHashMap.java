@@ -1,190 +1,510 @@
+/**
+ * A hash map from String keys to values using open addressing with linear probing.
+ * Keys, values and the keys' hash codes are kept in parallel arrays, so there is no node
+ * object per entry and a probe only compares keys whose cached hash codes match.
+ * The capacity is always a power of two, which turns the modulo into a bit mask.
+ *
+ * In incremental-resize mode a growing map keeps its old table next to the new one and
+ * moves a few old slots per insert or remove, instead of moving every entry at once.
+ * Lookups check the new table and then the part of the old table that has not moved yet.
+ * This keeps the worst-case cost of an insert bounded on very large maps.
+ */
 public class MyHashMap {
 
-    private MyHashNode[] chains;
+    // Number of old slots moved to the new table by every insert or remove during a resize
+    private static final int MIGRATION_STEP = 8;
+
+    private String[] keyTable;
+    private Object[] valueTable;
+    private int[] hashTable;
     private int capacity;
+    private int mask;
     private int size;
     private final double LOAD_FACTOR = 0.75;
 
+    // Whether resizes are spread over later operations
+    private final boolean incrementalResize;
+
+    // The previous table while a resize is in progress (null otherwise)
+    private String[] oldKeyTable;
+    private Object[] oldValueTable;
+    private int[] oldHashTable;
+
+    // Old slots below this index have already been moved to the new table
+    private int migrateIndex;
+
+    // Probe statistics: key probes run, slots visited by them, the longest one, and resizes
+    private long probeCount;
+    private long probeSlots;
+    private int longestProbe;
+    private int rehashCount;
+
+    /**
+     * Constructs a hash map able to hold the given number of entries before growing.
+     *
+     * @param initialCapacity the expected number of entries
+     */
     public MyHashMap(int initialCapacity) {
-        this.capacity = initialCapacity;
+        this(initialCapacity, false);
+    }
+
+    /**
+     * Constructs a hash map able to hold the given number of entries before growing.
+     *
+     * @param initialCapacity   the expected number of entries
+     * @param incrementalResize whether to spread resizes over later operations
+     */
+    public MyHashMap(int initialCapacity, boolean incrementalResize) {
+        this.capacity = tableSizeFor((int) Math.ceil(initialCapacity / LOAD_FACTOR));
+        this.mask = this.capacity - 1;
         this.size = 0;
-        this.chains = new MyHashNode[this.capacity];
+        this.keyTable = new String[this.capacity];
+        this.valueTable = new Object[this.capacity];
+        this.hashTable = new int[this.capacity];
+        this.incrementalResize = incrementalResize;
     }
 
-    private int hashFunction(String key) {
-        int hash = 0;
-        char[] var3 = key.toCharArray();
-        int var4 = var3.length;
+    /**
+     * Rounds a requested table size up to a power of two.
+     *
+     * @param requested the requested number of slots
+     * @return the smallest power of two that is at least requested (and at least 2)
+     */
+    static int tableSizeFor(int requested) {
+        int n = 2;
+        while (n < requested) {
+            n = n << 1;
+        }
+        return n;
+    }
 
-        for (int var5 = 0; var5 < var4; ++var5) {
-            char c = var3[var5];
-            hash = (hash * 127 + c) % this.capacity;
+    /**
+     * Computes the hash of a key. String caches its own hash code; any other character
+     * sequence is hashed the same way String does, so it finds the entry of the equal String.
+     * String hash codes of similar keys differ mostly in their low bits and form runs of
+     * neighbouring values, which linear probing turns into long clusters. They are therefore
+     * scrambled by a Fibonacci multiply, and the halves of the product are swapped so that its
+     * well-mixed high bits are the low bits that select a slot.
+     *
+     * @param key the key to hash
+     * @return the spread hash code
+     */
+    static int hashFunction(CharSequence key) {
+        int hash;
+        if (key instanceof String) {
+            hash = key.hashCode();
+        } else {
+            hash = 0;
+            for (int i = 0, length = key.length(); i < length; i++) {
+                hash = 31 * hash + key.charAt(i);
+            }
         }
+        return Integer.rotateLeft(hash * 0x9E3779B9, 16);
+    }
 
-        if (hash < 0) {
-            hash += this.capacity;
+    /**
+     * Finds the slot holding a key.
+     *
+     * @param key  the key to look for
+     * @param hash the spread hash code of the key
+     * @return the slot of the key, or -1 if the key is not present
+     */
+    private int indexOf(CharSequence key, int hash) {
+        int slots = 1;
+        for (int index = hash & this.mask; ; index = (index + 1) & this.mask, slots++) {
+            String current = this.keyTable[index];
+            if (current == null) {
+                this.recordProbe(slots);
+                return -1;
+            }
+            if (this.hashTable[index] == hash && (current == key || current.contentEquals(key))) {
+                this.recordProbe(slots);
+                return index;
+            }
         }
+    }
 
-        return hash;
+    /**
+     * Counts one probe of the new table. Does nothing when metrics are off
+     * ({@code -Dfeed.metrics=false}), so lookups then leave the map untouched.
+     *
+     * @param slots the number of slots the probe visited
+     */
+    private void recordProbe(int slots) {
+        if (!FeedMetrics.ENABLED) {
+            return;
+        }
+        this.probeCount++;
+        this.probeSlots += slots;
+        if (slots > this.longestProbe) {
+            this.longestProbe = slots;
+        }
     }
 
-    public void insert(String key, Object value) {
-        int index = this.hashFunction(key);
-        MyHashNode head = this.chains[index];
-        if (!this.contains(key)) {
-            MyHashNode newNode = new MyHashNode(key, value);
-            if (head == null) {
-                this.chains[index] = newNode;
-            } else {
-                while (head.next != null) {
-                    head = head.next;
-                }
+    /**
+     * Finds the slot holding a key in the part of the old table that has not been moved yet.
+     * Migration only stops right after an empty old slot, so no run crosses the boundary
+     * and a key whose home slot is below it has already been moved.
+     *
+     * @param key  the key to look for
+     * @param hash the spread hash code of the key
+     * @return the old slot of the key, or -1 if the key is not in the old table
+     */
+    private int oldIndexOf(CharSequence key, int hash) {
+        if (this.oldKeyTable == null) {
+            return -1;
+        }
 
-                head.next = newNode;
-            }
+        int oldMask = this.oldKeyTable.length - 1;
+        int index = hash & oldMask;
+        if (index < this.migrateIndex) {
+            return -1;
+        }
 
-            ++this.size;
-            if ((double) this.size / (double) this.capacity > 0.75) {
-                this.rehash();
+        for (; ; index = (index + 1) & oldMask) {
+            String current = this.oldKeyTable[index];
+            if (current == null) {
+                return -1;
+            }
+            if (this.oldHashTable[index] == hash && (current == key || current.contentEquals(key))) {
+                return index;
             }
         }
     }
 
-    public Object find(String key) {
-        int index = this.hashFunction(key);
+    /**
+     * Inserts a key-value pair. Does nothing if the key is already present.
+     *
+     * @param key   the key
+     * @param value the value associated with the key
+     */
+    public void insert(String key, Object value) {
+        int hash = hashFunction(key);
+
+        if (this.oldKeyTable != null) {
+            if (this.oldIndexOf(key, hash) >= 0) {
+                return;
+            }
+            this.migrate(MIGRATION_STEP);
+        }
+
+        int index = hash & this.mask;
+        int slots = 1;
 
-        for (
-            MyHashNode head = this.chains[index];
-            head != null;
-            head = head.next
-        ) {
-            if (head.key.equals(key)) {
-                return head.value;
+        // A single probe both checks for the key and finds the free slot
+        while (this.keyTable[index] != null) {
+            if (this.hashTable[index] == hash && this.keyTable[index].equals(key)) {
+                this.recordProbe(slots);
+                return;
             }
+            index = (index + 1) & this.mask;
+            slots++;
+        }
+        this.recordProbe(slots);
+
+        // Grow before placing the key, so that no table is ever completely full
+        if ((double) (this.size + 1) / (double) this.capacity > LOAD_FACTOR) {
+            this.rehash();
+            index = hash & this.mask;
+            while (this.keyTable[index] != null) {
+                index = (index + 1) & this.mask;
+            }
+        }
+
+        this.keyTable[index] = key;
+        this.valueTable[index] = value;
+        this.hashTable[index] = hash;
+        ++this.size;
+    }
+
+    /**
+     * Looks up the value associated with a key.
+     * The key may be any character sequence, so callers can look up without building a String.
+     *
+     * @param key the key to look for
+     * @return the value, or null if the key is not present
+     */
+    public Object find(CharSequence key) {
+        int hash = hashFunction(key);
+        int index = this.indexOf(key, hash);
+        if (index >= 0) {
+            return this.valueTable[index];
         }
 
-        return null;
+        index = this.oldIndexOf(key, hash);
+        return index < 0 ? null : this.oldValueTable[index];
     }
 
-    public boolean contains(String key) {
+    /**
+     * Checks whether a key is present.
+     *
+     * @param key the key to look for
+     * @return true if the key is present, false otherwise
+     */
+    public boolean contains(CharSequence key) {
         return this.find(key) != null;
     }
 
-    public void remove(String key) {
-        int index = this.hashFunction(key);
-        MyHashNode head = this.chains[index];
-        if (head != null) {
-            if (head.key.equals(key)) {
-                this.chains[index] = head.next;
-                --this.size;
-            } else {
-                MyHashNode prev = head;
+    /**
+     * Removes a key and its value. Does nothing if the key is not present.
+     * The entries after the freed slot are shifted back so that no tombstones are needed.
+     *
+     * @param key the key to remove
+     */
+    public void remove(CharSequence key) {
+        int hash = hashFunction(key);
+
+        if (this.oldKeyTable != null) {
+            int oldIndex = this.oldIndexOf(key, hash);
+            if (oldIndex >= 0) {
+                removeOld(oldIndex);
+                this.migrate(MIGRATION_STEP);
+                return;
+            }
+            this.migrate(MIGRATION_STEP);
+        }
 
-                for (head = head.next; head != null; head = head.next) {
-                    if (head.key.equals(key)) {
-                        prev.next = head.next;
-                        --this.size;
-                        return;
-                    }
+        int hole = this.indexOf(key, hash);
+        if (hole < 0) {
+            return;
+        }
 
-                    prev = head;
-                }
+        // Shift back every following entry of the run that may no longer be reachable
+        for (int index = (hole + 1) & this.mask; this.keyTable[index] != null; index = (index + 1) & this.mask) {
+            int home = this.hashTable[index] & this.mask;
+            // The entry may move into the hole if its home slot is not between the hole and its slot
+            if (((index - home) & this.mask) >= ((index - hole) & this.mask)) {
+                this.keyTable[hole] = this.keyTable[index];
+                this.valueTable[hole] = this.valueTable[index];
+                this.hashTable[hole] = this.hashTable[index];
+                hole = index;
+            }
+        }
+
+        this.keyTable[hole] = null;
+        this.valueTable[hole] = null;
+        --this.size;
+    }
+
+    /**
+     * Removes the entry in an old slot that has not been moved yet, shifting back the
+     * following entries of its run that are still waiting to move.
+     *
+     * @param hole the old slot to clear
+     */
+    private void removeOld(int hole) {
+        int oldMask = this.oldKeyTable.length - 1;
+
+        // Moved slots are empty, so a run that wraps around ends there as well
+        for (int index = (hole + 1) & oldMask; this.oldKeyTable[index] != null; index = (index + 1) & oldMask) {
+            int home = this.oldHashTable[index] & oldMask;
+            if (((index - home) & oldMask) >= ((index - hole) & oldMask)) {
+                this.oldKeyTable[hole] = this.oldKeyTable[index];
+                this.oldValueTable[hole] = this.oldValueTable[index];
+                this.oldHashTable[hole] = this.oldHashTable[index];
+                hole = index;
             }
         }
+
+        this.oldKeyTable[hole] = null;
+        this.oldValueTable[hole] = null;
+        --this.size;
     }
 
+    /**
+     * Doubles the capacity of the table. Outside incremental-resize mode every entry is moved
+     * to its new slot right away; otherwise the old table is kept and moved by later operations.
+     * The cached hash codes are reused, so no key is hashed or compared again.
+     */
     private void rehash() {
-        MyHashNode[] oldChain = this.chains;
+        // A resize still in progress is finished before the next one starts
+        if (this.oldKeyTable != null) {
+            this.migrate(this.oldKeyTable.length);
+        }
+
+        this.oldKeyTable = this.keyTable;
+        this.oldValueTable = this.valueTable;
+        this.oldHashTable = this.hashTable;
+        this.migrateIndex = 0;
+        this.rehashCount++;
+
         this.capacity = 2 * this.capacity;
-        this.chains = new MyHashNode[this.capacity];
-        this.size = 0;
-        MyHashNode[] var2 = oldChain;
-        int var3 = oldChain.length;
+        this.mask = this.capacity - 1;
+        this.keyTable = new String[this.capacity];
+        this.valueTable = new Object[this.capacity];
+        this.hashTable = new int[this.capacity];
+
+        if (!this.incrementalResize) {
+            this.migrate(this.oldKeyTable.length);
+        }
+    }
 
-        for (int var4 = 0; var4 < var3; ++var4) {
-            for (MyHashNode head = var2[var4]; head != null; head = head.next) {
-                this.insert(head.key, head.value);
+    /**
+     * Moves at least the given number of old slots into the new table, continuing until
+     * the last moved slot was empty so that the boundary never splits a probe run.
+     * Drops the old table once every slot has been moved.
+     *
+     * @param slots the minimum number of old slots to move
+     */
+    private void migrate(int slots) {
+        int moved = 0;
+        boolean runEnded = false;
+
+        while (this.migrateIndex < this.oldKeyTable.length && (moved < slots || !runEnded)) {
+            int i = this.migrateIndex;
+            runEnded = this.oldKeyTable[i] == null;
+
+            if (!runEnded) {
+                int index = this.oldHashTable[i] & this.mask;
+                while (this.keyTable[index] != null) {
+                    index = (index + 1) & this.mask;
+                }
+                this.keyTable[index] = this.oldKeyTable[i];
+                this.valueTable[index] = this.oldValueTable[i];
+                this.hashTable[index] = this.oldHashTable[i];
+                this.oldKeyTable[i] = null;
+                this.oldValueTable[i] = null;
             }
+
+            this.migrateIndex = i + 1;
+            moved++;
+        }
+
+        if (this.migrateIndex == this.oldKeyTable.length) {
+            this.oldKeyTable = null;
+            this.oldValueTable = null;
+            this.oldHashTable = null;
         }
     }
 
+    /**
+     * Returns all keys in the map.
+     *
+     * @return an array with every key, in table order
+     */
     public String[] keys() {
         String[] keysArray = new String[this.size];
         int index = 0;
-        MyHashNode[] var3 = this.chains;
-        int var4 = var3.length;
 
-        for (int var5 = 0; var5 < var4; ++var5) {
-            MyHashNode chain = var3[var5];
+        for (int i = 0; i < this.capacity; ++i) {
+            if (this.keyTable[i] != null) {
+                keysArray[index++] = this.keyTable[i];
+            }
+        }
 
-            for (
-                MyHashNode current = chain;
-                current != null;
-                current = current.next
-            ) {
-                keysArray[index++] = current.key;
+        if (this.oldKeyTable != null) {
+            for (int i = this.migrateIndex; i < this.oldKeyTable.length; ++i) {
+                if (this.oldKeyTable[i] != null) {
+                    keysArray[index++] = this.oldKeyTable[i];
+                }
             }
         }
 
         return keysArray;
     }
 
+    /**
+     * Returns all values in the map.
+     *
+     * @return an array with every value, in table order
+     */
     public Object[] values() {
         Object[] valuesArray = new Object[this.size];
         int index = 0;
-        MyHashNode[] var3 = this.chains;
-        int var4 = var3.length;
 
-        for (int var5 = 0; var5 < var4; ++var5) {
-            MyHashNode chain = var3[var5];
+        for (int i = 0; i < this.capacity; ++i) {
+            if (this.keyTable[i] != null) {
+                valuesArray[index++] = this.valueTable[i];
+            }
+        }
 
-            for (
-                MyHashNode current = chain;
-                current != null;
-                current = current.next
-            ) {
-                valuesArray[index++] = current.value;
+        if (this.oldKeyTable != null) {
+            for (int i = this.migrateIndex; i < this.oldKeyTable.length; ++i) {
+                if (this.oldKeyTable[i] != null) {
+                    valuesArray[index++] = this.oldValueTable[i];
+                }
             }
         }
 
         return valuesArray;
     }
 
+    /**
+     * Gets the number of entries in the map.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets the number of key probes of the current table: one per lookup, insert and
+     * remove (lookups of keys still in the old table during a resize are not counted).
+     * Probes are only counted while {@link FeedMetrics#ENABLED} is set.
+     *
+     * @return the number of probes
+     */
+    public long probeCount() {
+        return this.probeCount;
+    }
+
+    /**
+     * Gets the mean number of slots a probe visited, 1 for a key found in its home slot.
+     *
+     * @return the mean probe length, or 0 if nothing was probed
+     */
+    public double meanProbeLength() {
+        return this.probeCount == 0 ? 0 : (double) this.probeSlots / this.probeCount;
+    }
+
+    /**
+     * Gets the largest number of slots a single probe visited.
+     *
+     * @return the longest probe length
+     */
+    public int longestProbe() {
+        return this.longestProbe;
+    }
+
+    /**
+     * Gets the number of times the table doubled.
+     *
+     * @return the number of rehashes
+     */
+    public int rehashCount() {
+        return this.rehashCount;
+    }
+
+    /**
+     * Gets the number of slots of the current table.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return this.capacity;
+    }
+
     public String toString() {
         StringBuilder sb = new StringBuilder();
 
         for (int i = 0; i < this.capacity; ++i) {
-            sb.append("Chain ").append(i).append(": ");
+            sb.append("Slot ").append(i).append(": ");
 
-            for (
-                MyHashNode head = this.chains[i];
-                head != null;
-                head = head.next
-            ) {
+            if (this.keyTable[i] != null) {
                 sb
                     .append("(")
-                    .append(head.key)
+                    .append(this.keyTable[i])
                     .append(", ")
-                    .append(head.value)
-                    .append(") -> ");
+                    .append(this.valueTable[i])
+                    .append(")");
+            } else {
+                sb.append("empty");
             }
 
-            sb.append("null\n");
+            sb.append("\n");
         }
 
         return sb.toString();
     }
-
-    private class MyHashNode {
-
-        String key;
-        Object value;
-        MyHashNode next;
-
-        public MyHashNode(String key, Object value) {
-            this.key = key;
-            this.value = value;
-            this.next = null;
-        }
-    }
 }
@@ -0,0 +1,278 @@
+/**
+ * A map from positive int keys to values that starts small and only becomes a hash table
+ * when it grows. An empty map allocates nothing; up to {@link MyIntHashSet#SMALL_LIMIT}
+ * entries are kept in small parallel arrays that are scanned linearly; past that the entries
+ * move to an open-addressing table with linear probing.
+ * Key 0 marks an empty slot, which is why users and posts are numbered from 1.
+ */
+public class MyIntHashMap {
+
+    private static final double LOAD_FACTOR = 0.75;
+
+    // Null while empty, the small arrays while not hashed, the hash table otherwise
+    private int[] keyTable;
+    private Object[] valueTable;
+
+    // Whether keyTable and valueTable form a hash table
+    private boolean hashed;
+
+    private int size;
+
+    /**
+     * Constructs an empty map.
+     */
+    public MyIntHashMap() {
+        this.size = 0;
+    }
+
+    /**
+     * Finds the slot holding a key.
+     *
+     * @param key the key to look for
+     * @return the slot of the key, or -1 if the key is not present
+     */
+    private int indexOf(int key) {
+        if (!this.hashed) {
+            for (int i = 0; i < this.size; i++) {
+                if (this.keyTable[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int mask = this.keyTable.length - 1;
+        for (int index = MyIntHashSet.hashFunction(key) & mask; ; index = (index + 1) & mask) {
+            int current = this.keyTable[index];
+            if (current == key) {
+                return index;
+            }
+            if (current == 0) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Inserts a key-value pair. Does nothing if the key is already present.
+     *
+     * @param key   the key (must be positive)
+     * @param value the value associated with the key
+     */
+    public void insert(int key, Object value) {
+        if (!this.hashed) {
+            if (this.indexOf(key) >= 0) {
+                return;
+            }
+            if (this.size < MyIntHashSet.SMALL_LIMIT) {
+                // Append to the small arrays, growing them 2 -> 4 -> 8
+                if (this.keyTable == null || this.size == this.keyTable.length) {
+                    int length = this.keyTable == null ? 2 : this.keyTable.length * 2;
+                    int[] newKeys = new int[length];
+                    Object[] newValues = new Object[length];
+                    if (this.keyTable != null) {
+                        System.arraycopy(this.keyTable, 0, newKeys, 0, this.size);
+                        System.arraycopy(this.valueTable, 0, newValues, 0, this.size);
+                    }
+                    this.keyTable = newKeys;
+                    this.valueTable = newValues;
+                }
+                this.keyTable[this.size] = key;
+                this.valueTable[this.size] = value;
+                this.size++;
+                return;
+            }
+            this.rehash(MyIntHashSet.tableSizeFor((int) Math.ceil((MyIntHashSet.SMALL_LIMIT + 1) / LOAD_FACTOR)));
+            this.hashed = true;
+        }
+
+        int mask = this.keyTable.length - 1;
+        int index = MyIntHashSet.hashFunction(key) & mask;
+
+        while (this.keyTable[index] != 0) {
+            if (this.keyTable[index] == key) {
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        // Grow before placing the key, so that the table is never completely full
+        if ((double) (this.size + 1) / (double) this.keyTable.length > LOAD_FACTOR) {
+            this.rehash(2 * this.keyTable.length);
+            mask = this.keyTable.length - 1;
+            index = MyIntHashSet.hashFunction(key) & mask;
+            while (this.keyTable[index] != 0) {
+                index = (index + 1) & mask;
+            }
+        }
+
+        this.keyTable[index] = key;
+        this.valueTable[index] = value;
+        ++this.size;
+    }
+
+    /**
+     * Looks up the value associated with a key.
+     *
+     * @param key the key to look for
+     * @return the value, or null if the key is not present
+     */
+    public Object find(int key) {
+        int index = this.indexOf(key);
+        return index < 0 ? null : this.valueTable[index];
+    }
+
+    /**
+     * Checks whether a key is present.
+     *
+     * @param key the key to look for
+     * @return true if the key is present, false otherwise
+     */
+    public boolean contains(int key) {
+        return this.find(key) != null;
+    }
+
+    /**
+     * Removes a key and its value. Does nothing if the key is not present.
+     * In the hash table the entries after the freed slot are shifted back so that no
+     * tombstones are needed.
+     *
+     * @param key the key to remove
+     */
+    public void remove(int key) {
+        int hole = this.indexOf(key);
+        if (hole < 0) {
+            return;
+        }
+
+        if (!this.hashed) {
+            // Order does not matter, move the last entry into the gap
+            --this.size;
+            this.keyTable[hole] = this.keyTable[this.size];
+            this.valueTable[hole] = this.valueTable[this.size];
+            this.keyTable[this.size] = 0;
+            this.valueTable[this.size] = null;
+            return;
+        }
+
+        int mask = this.keyTable.length - 1;
+        for (int index = (hole + 1) & mask; this.keyTable[index] != 0; index = (index + 1) & mask) {
+            int home = MyIntHashSet.hashFunction(this.keyTable[index]) & mask;
+            if (((index - home) & mask) >= ((index - hole) & mask)) {
+                this.keyTable[hole] = this.keyTable[index];
+                this.valueTable[hole] = this.valueTable[index];
+                hole = index;
+            }
+        }
+
+        this.keyTable[hole] = 0;
+        this.valueTable[hole] = null;
+        --this.size;
+    }
+
+    /**
+     * Moves every entry into a new hash table of the given size.
+     * Works both for the small arrays and for a hash table.
+     *
+     * @param capacity the new number of slots
+     */
+    private void rehash(int capacity) {
+        int[] oldKeys = this.keyTable;
+        Object[] oldValues = this.valueTable;
+
+        this.keyTable = new int[capacity];
+        this.valueTable = new Object[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != 0) {
+                int index = MyIntHashSet.hashFunction(oldKeys[i]) & mask;
+                while (this.keyTable[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                this.keyTable[index] = oldKeys[i];
+                this.valueTable[index] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Returns all keys in the map.
+     *
+     * @return an array with every key, in the order of {@link #values()}
+     */
+    public int[] keys() {
+        int[] keysArray = new int[this.size];
+        if (!this.hashed) {
+            if (this.size > 0) {
+                System.arraycopy(this.keyTable, 0, keysArray, 0, this.size);
+            }
+            return keysArray;
+        }
+
+        int index = 0;
+        for (int i = 0; i < this.keyTable.length; ++i) {
+            if (this.keyTable[i] != 0) {
+                keysArray[index++] = this.keyTable[i];
+            }
+        }
+
+        return keysArray;
+    }
+
+    /**
+     * Returns all values in the map.
+     *
+     * @return an array with every value, in table order
+     */
+    public Object[] values() {
+        Object[] valuesArray = new Object[this.size];
+        if (!this.hashed) {
+            if (this.size > 0) {
+                System.arraycopy(this.valueTable, 0, valuesArray, 0, this.size);
+            }
+            return valuesArray;
+        }
+
+        int index = 0;
+        for (int i = 0; i < this.keyTable.length; ++i) {
+            if (this.keyTable[i] != 0) {
+                valuesArray[index++] = this.valueTable[i];
+            }
+        }
+
+        return valuesArray;
+    }
+
+    /**
+     * Gets the number of slots, for walking the values without copying them: every value
+     * is {@link #valueAt(int)} of exactly one slot below this number.
+     *
+     * @return the number of slots
+     */
+    public int slotCount() {
+        if (this.keyTable == null) {
+            return 0;
+        }
+        return this.hashed ? this.keyTable.length : this.size;
+    }
+
+    /**
+     * Gets the value in a slot. The map must not change while its slots are walked.
+     *
+     * @param slot the slot, below {@link #slotCount()}
+     * @return the value, or null if the slot is empty
+     */
+    public Object valueAt(int slot) {
+        return this.valueTable[slot];
+    }
+
+    /**
+     * Gets the number of entries in the map.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return this.size;
+    }
+}
@@ -0,0 +1,245 @@
+/**
+ * A set of positive int keys that starts small and only becomes a hash table when it grows.
+ * An empty set allocates nothing; up to {@link #SMALL_LIMIT} keys are kept in a small array
+ * that is scanned linearly; past that the keys move to an open-addressing table with linear
+ * probing. Most per-user and per-post sets never leave the small array.
+ * Key 0 marks an empty slot, which is why users and posts are numbered from 1.
+ */
+public class MyIntHashSet {
+
+    // Largest number of keys kept in the small array
+    static final int SMALL_LIMIT = 8;
+
+    private static final double LOAD_FACTOR = 0.75;
+
+    // Null while empty, the small array of keys while not hashed, the hash table otherwise
+    private int[] keyTable;
+
+    // Whether keyTable is a hash table
+    private boolean hashed;
+
+    private int size;
+
+    /**
+     * Constructs an empty set.
+     */
+    public MyIntHashSet() {
+        this.size = 0;
+    }
+
+    /**
+     * Rounds a requested table size up to a power of two.
+     *
+     * @param requested the requested number of slots
+     * @return the smallest power of two that is at least requested (and at least 2)
+     */
+    static int tableSizeFor(int requested) {
+        int n = 2;
+        while (n < requested) {
+            n = n << 1;
+        }
+        return n;
+    }
+
+    /**
+     * Computes the hash of a key. Dense ids are spread over the table by a multiplicative hash.
+     *
+     * @param key the key to hash
+     * @return the hash code
+     */
+    static int hashFunction(int key) {
+        int hash = key * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Adds a key. Does nothing if the key is already present.
+     *
+     * @param key the key to add (must be positive)
+     */
+    public void insert(int key) {
+        if (!this.hashed) {
+            if (this.contains(key)) {
+                return;
+            }
+            if (this.size < SMALL_LIMIT) {
+                // Append to the small array, growing it 2 -> 4 -> 8
+                if (this.keyTable == null || this.size == this.keyTable.length) {
+                    int[] newKeys = new int[this.keyTable == null ? 2 : this.keyTable.length * 2];
+                    if (this.keyTable != null) {
+                        System.arraycopy(this.keyTable, 0, newKeys, 0, this.size);
+                    }
+                    this.keyTable = newKeys;
+                }
+                this.keyTable[this.size++] = key;
+                return;
+            }
+            this.toHashTable();
+        }
+
+        int mask = this.keyTable.length - 1;
+        int index = hashFunction(key) & mask;
+
+        while (this.keyTable[index] != 0) {
+            if (this.keyTable[index] == key) {
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        // Grow before placing the key, so that the table is never completely full
+        if ((double) (this.size + 1) / (double) this.keyTable.length > LOAD_FACTOR) {
+            this.rehash(2 * this.keyTable.length);
+            mask = this.keyTable.length - 1;
+            index = hashFunction(key) & mask;
+            while (this.keyTable[index] != 0) {
+                index = (index + 1) & mask;
+            }
+        }
+
+        this.keyTable[index] = key;
+        ++this.size;
+    }
+
+    /**
+     * Checks whether a key is present.
+     *
+     * @param key the key to look for
+     * @return true if the key is present, false otherwise
+     */
+    public boolean contains(int key) {
+        if (!this.hashed) {
+            for (int i = 0; i < this.size; i++) {
+                if (this.keyTable[i] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int mask = this.keyTable.length - 1;
+        for (int index = hashFunction(key) & mask; ; index = (index + 1) & mask) {
+            int current = this.keyTable[index];
+            if (current == key) {
+                return true;
+            }
+            if (current == 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Removes a key. Does nothing if the key is not present.
+     * In the hash table the keys after the freed slot are shifted back so that no tombstones
+     * are needed.
+     *
+     * @param key the key to remove
+     */
+    public void remove(int key) {
+        if (!this.hashed) {
+            for (int i = 0; i < this.size; i++) {
+                if (this.keyTable[i] == key) {
+                    // Order does not matter, move the last key into the gap
+                    this.keyTable[i] = this.keyTable[--this.size];
+                    this.keyTable[this.size] = 0;
+                    return;
+                }
+            }
+            return;
+        }
+
+        int mask = this.keyTable.length - 1;
+        int hole = hashFunction(key) & mask;
+        while (this.keyTable[hole] != key) {
+            if (this.keyTable[hole] == 0) {
+                return;
+            }
+            hole = (hole + 1) & mask;
+        }
+
+        for (int index = (hole + 1) & mask; this.keyTable[index] != 0; index = (index + 1) & mask) {
+            int home = hashFunction(this.keyTable[index]) & mask;
+            if (((index - home) & mask) >= ((index - hole) & mask)) {
+                this.keyTable[hole] = this.keyTable[index];
+                hole = index;
+            }
+        }
+
+        this.keyTable[hole] = 0;
+        --this.size;
+    }
+
+    /**
+     * Moves the keys of the full small array into a hash table.
+     */
+    private void toHashTable() {
+        int[] smallKeys = this.keyTable;
+        this.keyTable = new int[tableSizeFor((int) Math.ceil((SMALL_LIMIT + 1) / LOAD_FACTOR))];
+        this.hashed = true;
+        this.place(smallKeys, this.size);
+    }
+
+    /**
+     * Resizes the hash table and moves every key to its new slot.
+     *
+     * @param capacity the new number of slots
+     */
+    private void rehash(int capacity) {
+        int[] oldKeys = this.keyTable;
+        this.keyTable = new int[capacity];
+        this.place(oldKeys, oldKeys.length);
+    }
+
+    /**
+     * Places keys into the (empty part of the) hash table.
+     *
+     * @param keys  the keys to place; zero entries are skipped
+     * @param count the number of array entries to look at
+     */
+    private void place(int[] keys, int count) {
+        int mask = this.keyTable.length - 1;
+        for (int i = 0; i < count; i++) {
+            if (keys[i] != 0) {
+                int index = hashFunction(keys[i]) & mask;
+                while (this.keyTable[index] != 0) {
+                    index = (index + 1) & mask;
+                }
+                this.keyTable[index] = keys[i];
+            }
+        }
+    }
+
+    /**
+     * Returns all keys in the set.
+     *
+     * @return an array with every key, in table order
+     */
+    public int[] keys() {
+        int[] keysArray = new int[this.size];
+        if (!this.hashed) {
+            if (this.size > 0) {
+                System.arraycopy(this.keyTable, 0, keysArray, 0, this.size);
+            }
+            return keysArray;
+        }
+
+        int index = 0;
+        for (int key : this.keyTable) {
+            if (key != 0) {
+                keysArray[index++] = key;
+            }
+        }
+
+        return keysArray;
+    }
+
+    /**
+     * Gets the number of keys in the set.
+     *
+     * @return the number of keys
+     */
+    public int size() {
+        return this.size;
+    }
+}
@@ -66,17 +66,19 @@ public class MyMaxHeap {
     }
 
     /**
-     * Compares two posts based on their like counts and post IDs.
+     * Compares two posts based on their like counts and post IDs. Posts of different authors
+     * with the same ID and like count are ordered oldest first.
      *
      * @param post1 the first post to compare
      * @param post2 the second post to compare
      * @return a positive value if post1 > post2, negative if post1 < post2, or 0 if they are equal
      */
-    private int compare(Post post1, Post post2) {
+    static int compare(Post post1, Post post2) {
         if (post1.likeCount != post2.likeCount) {
             return post1.likeCount - post2.likeCount; // Higher like count is prioritized
         }
-        return post1.postId.compareTo(post2.postId); // Lexicographically larger ID is prioritized
+        int byId = post1.postId.compareTo(post2.postId); // Lexicographically larger ID is prioritized
+        return byId != 0 ? byId : Integer.compare(post2.id, post1.id);
     }
 
     /**
@@ -0,0 +1,69 @@
+/**
+ * A bounded first-in first-out queue over a circular array, used to hand work from one
+ * thread to another. {@link #put(Object)} waits while the ring is full and {@link #take()}
+ * waits while it is empty, so a fast producer can never run more than the capacity ahead
+ * of its consumer.
+ */
+public class MyRingBuffer {
+    // Circular array of queued items
+    private final Object[] items;
+
+    // Slot of the oldest item
+    private int head;
+
+    // Number of queued items
+    private int count;
+
+    /**
+     * Constructs an empty ring buffer.
+     *
+     * @param capacity the maximum number of queued items
+     */
+    public MyRingBuffer(int capacity) {
+        this.items = new Object[capacity];
+        this.head = 0;
+        this.count = 0;
+    }
+
+    /**
+     * Adds an item at the tail, waiting for a free slot if the ring is full.
+     *
+     * @param item the item to add
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized void put(Object item) throws InterruptedException {
+        while (count == items.length) {
+            wait();
+        }
+        items[(head + count) % items.length] = item;
+        count++;
+        notifyAll();
+    }
+
+    /**
+     * Removes the item at the head, waiting for one if the ring is empty.
+     *
+     * @return the oldest item
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized Object take() throws InterruptedException {
+        while (count == 0) {
+            wait();
+        }
+        Object item = items[head];
+        items[head] = null;
+        head = (head + 1) % items.length;
+        count--;
+        notifyAll();
+        return item;
+    }
+
+    /**
+     * Gets the number of queued items.
+     *
+     * @return the number of items
+     */
+    public synchronized int size() {
+        return count;
+    }
+}
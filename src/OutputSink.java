@@ -0,0 +1,225 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Collects command results as bytes in one reusable buffer and writes them to a stream in
+ * large chunks. Messages are appended fragment by fragment (text, numbers, line breaks)
+ * and encoded as UTF-8 on the way in, so no String or char[] is built for a result.
+ */
+public class OutputSink implements Closeable {
+    // Default size of the buffer, written out whenever it fills up
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Bytes of the platform line separator, as written by BufferedWriter.newLine()
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+
+    private final OutputStream out;
+
+    private final byte[] buffer;
+
+    // Number of bytes in the buffer
+    private int count;
+
+    // Digits of the number being appended, reused between calls
+    private final byte[] digits = new byte[11];
+
+    /**
+     * Constructs a sink writing to a stream.
+     *
+     * @param out the stream receiving the bytes
+     */
+    public OutputSink(OutputStream out) {
+        this(out, BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a sink writing to a stream with a buffer of the given size.
+     *
+     * @param out        the stream receiving the bytes
+     * @param bufferSize the number of bytes collected before they are written (at least 16)
+     */
+    public OutputSink(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buffer = new byte[Math.max(16, bufferSize)];
+    }
+
+    /**
+     * Appends text.
+     *
+     * @param text the text to append
+     * @return this sink
+     */
+    public OutputSink append(CharSequence text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (count == buffer.length) {
+                    flushBuffer();
+                }
+                buffer[count++] = (byte) c;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                appendCodePoint(Character.toCodePoint(c, text.charAt(++i)));
+            } else {
+                appendCodePoint(c);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Appends a single character.
+     *
+     * @param c the character to append
+     * @return this sink
+     */
+    public OutputSink append(char c) {
+        if (c < 0x80) {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            buffer[count++] = (byte) c;
+        } else {
+            appendCodePoint(c);
+        }
+        return this;
+    }
+
+    /**
+     * Appends an int in decimal.
+     *
+     * @param value the number to append
+     * @return this sink
+     */
+    public OutputSink append(int value) {
+        if (buffer.length - count < digits.length) {
+            flushBuffer();
+        }
+
+        // Work with the negative value so that Integer.MIN_VALUE needs no special case
+        int remaining = value < 0 ? value : -value;
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' - remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+
+        if (value < 0) {
+            buffer[count++] = '-';
+        }
+        while (length > 0) {
+            buffer[count++] = digits[--length];
+        }
+        return this;
+    }
+
+    /**
+     * Appends bytes that are already UTF-8, such as the contents of another sink's stream.
+     *
+     * @param bytes  the array holding the bytes
+     * @param offset the position of the first byte
+     * @param length the number of bytes
+     * @return this sink
+     */
+    public OutputSink append(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            int chunk = Math.min(length, buffer.length - count);
+            System.arraycopy(bytes, offset, buffer, count, chunk);
+            count += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+        return this;
+    }
+
+    /**
+     * Ends the current line with the platform line separator.
+     *
+     * @return this sink
+     */
+    public OutputSink newLine() {
+        if (buffer.length - count < LINE_SEPARATOR.length) {
+            flushBuffer();
+        }
+        for (byte b : LINE_SEPARATOR) {
+            buffer[count++] = b;
+        }
+        return this;
+    }
+
+    /**
+     * Appends one code point as UTF-8. Unpaired surrogates are written as '?', as the
+     * standard encoder does.
+     *
+     * @param codePoint the code point to append
+     */
+    private void appendCodePoint(int codePoint) {
+        if (buffer.length - count < 4) {
+            flushBuffer();
+        }
+        if (codePoint < 0x800) {
+            buffer[count++] = (byte) (0xC0 | (codePoint >> 6));
+            buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (Character.isSurrogate((char) codePoint) && codePoint < 0x10000) {
+            buffer[count++] = '?';
+        } else if (codePoint < 0x10000) {
+            buffer[count++] = (byte) (0xE0 | (codePoint >> 12));
+            buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else {
+            buffer[count++] = (byte) (0xF0 | (codePoint >> 18));
+            buffer[count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[count++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+    }
+
+    /**
+     * Writes the collected bytes to the stream and empties the buffer.
+     */
+    private void flushBuffer() {
+        if (count == 0) {
+            return;
+        }
+        try {
+            out.write(buffer, 0, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        count = 0;
+    }
+
+    /**
+     * Writes the collected bytes and flushes the stream.
+     *
+     * @throws IOException if the stream cannot be written
+     */
+    public void flush() throws IOException {
+        try {
+            flushBuffer();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the collected bytes and closes the stream.
+     *
+     * @throws IOException if the stream cannot be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -1,11 +1,23 @@
 /**
  * Represents a post in the Instagram Feed Manager system.
- * Each post has a unique ID, an author, content, and tracks likes by users.
+ * Each post has an ID, an author, content, and tracks likes by users.
+ * Post IDs are only unique per author; posts of different authors that share an ID are
+ * chained behind the first of them, and count as one post when they are seen or liked.
  */
 public class Post {
-    // Unique identifier for the post
+    // Dense number of the post, assigned by FeedManager (starting from 1)
+    int id;
+
+    // Identifier of the post, unique among its author's posts
     String postId;
 
+    // The first post created with this ID (this post if it was the first); seen and liked
+    // state is kept under its number, so all posts with one ID are seen and liked together
+    Post firstWithId;
+
+    // The next post with the same ID by another author, or null
+    volatile Post nextWithId;
+
     // The user who authored the post
     User author;
 
@@ -15,53 +27,93 @@ public class Post {
     // Count of likes for the post
     int likeCount;
 
-    // A map to track users who liked the post (userId -> boolean)
-    MyHashMap likes;
+    // The numbers of the users who liked the post
+    MyIntHashSet likes;
+
+    // Slot of the post in its author's post index (0 when not indexed)
+    int heapIndex;
 
     /**
      * Constructs a Post with a given ID, author, and content.
      *
-     * @param postId  the unique identifier for the post
+     * @param id      the dense number of the post
+     * @param postId  the identifier for the post
      * @param author  the User who authored the post
      * @param content the content of the post
      */
-    public Post(String postId, User author, String content) {
+    public Post(int id, String postId, User author, String content) {
+        this.id = id;
         this.postId = postId;
         this.author = author;
         this.content = content;
+        this.firstWithId = this;
 
         // Initialize the like count to zero
         this.likeCount = 0;
 
-        // Initialize the likes map with an initial capacity of 10
-        this.likes = new MyHashMap(10);
+        // Initialize the likes set, which allocates nothing until the first like
+        this.likes = new MyIntHashSet();
+    }
+
+    /**
+     * Finds the post of an author among the posts sharing this post's ID.
+     * Must be called on the first post of the chain.
+     *
+     * @param author the author to look for
+     * @return the author's post with this ID, or null if there is none
+     */
+    Post findByAuthor(User author) {
+        for (Post post = this; post != null; post = post.nextWithId) {
+            if (post.author == author) {
+                return post;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Chains a post of another author with the same ID behind this one.
+     * Must be called on the first post of the chain. Authors of different stripes may
+     * chain posts concurrently, so the end of the chain is found under the first post's lock.
+     *
+     * @param post the post to chain, not yet visible to any other thread
+     */
+    void chain(Post post) {
+        post.firstWithId = this;
+        synchronized (this) {
+            Post last = this;
+            while (last.nextWithId != null) {
+                last = last.nextWithId;
+            }
+            last.nextWithId = post;
+        }
     }
 
     /**
-     * Adds a like to the post from a user with the given ID.
-     * Increments the like count and records the user's like in the map.
+     * Adds a like to the post from a user with the given number.
+     * Increments the like count and records the user's like in the set.
      *
-     * @param userId the ID of the user liking the post
+     * @param userId the number of the user liking the post
      */
-    public void addLike(String userId) {
+    public void addLike(int userId) {
         // Increment the like count
         this.likeCount = this.likeCount + 1;
 
-        // Record the user's like in the likes map
-        this.likes.insert(userId, true);
+        // Record the user's like in the likes set
+        this.likes.insert(userId);
     }
 
     /**
-     * Removes a like from the post by a user with the given ID.
-     * Decrements the like count and removes the user's like from the map.
+     * Removes a like from the post by a user with the given number.
+     * Decrements the like count and removes the user's like from the set.
      *
-     * @param userId the ID of the user unliking the post
+     * @param userId the number of the user unliking the post
      */
-    public void removeLike(String userId) {
+    public void removeLike(int userId) {
         // Decrement the like count
         this.likeCount = this.likeCount - 1;
 
-        // Remove the user's like from the likes map
+        // Remove the user's like from the likes set
         this.likes.remove(userId);
     }
 }
@@ -0,0 +1,334 @@
+/**
+ * An addressable max heap of posts, ordered the same way as {@link MyMaxHeap}.
+ * Every post remembers its own slot in the heap ({@link Post#heapIndex}), so a post can be
+ * removed or re-positioned after its like count changes in O(log n) without any lookup
+ * and without rebuilding the heap. Because the slot is stored on the post, a post can be
+ * in at most one index at a time.
+ */
+public class PostIndex {
+    // Array to represent the heap (1-based indexing, null until the first post is added)
+    private Post[] heap;
+
+    // Current number of elements in the heap
+    private int size;
+
+    /**
+     * Constructs an empty post index.
+     */
+    public PostIndex() {
+        this.size = 0;
+    }
+
+    /**
+     * Checks whether a post is currently in this index.
+     *
+     * @param post the Post object to check
+     * @return true if the post is in the index, false otherwise
+     */
+    public boolean contains(Post post) {
+        return post.heapIndex > 0 && post.heapIndex <= size && heap[post.heapIndex] == post;
+    }
+
+    /**
+     * Adds a post to the index. Does nothing if the post is already present.
+     *
+     * @param post the Post object to add
+     */
+    public void add(Post post) {
+        if (contains(post)) {
+            return;
+        }
+
+        // Allocate the heap array on the first post, most users only ever post a few times
+        if (heap == null) {
+            heap = new Post[4];
+        }
+
+        // Grow the heap array if necessary
+        if (size == heap.length - 1) {
+            Post[] newHeap = new Post[heap.length * 2];
+            System.arraycopy(heap, 0, newHeap, 0, size + 1);
+            heap = newHeap;
+        }
+
+        size = size + 1;
+        place(post, size);
+        percolateUp(size);
+    }
+
+    /**
+     * Fills an empty index with many posts at once and builds the heap bottom-up, which
+     * takes O(n) time instead of the O(n log n) of adding the posts one by one.
+     * Used when a snapshot is loaded; the posts must not be in any index yet.
+     *
+     * @param posts the posts to add
+     * @param from  the position of the first post in the array
+     * @param count the number of posts
+     */
+    public void build(Post[] posts, int from, int count) {
+        if (count == 0) {
+            return;
+        }
+        heap = new Post[Math.max(4, Integer.highestOneBit(count) << 1)];
+        size = count;
+        for (int i = 0; i < count; i++) {
+            place(posts[from + i], i + 1);
+        }
+        for (int index = size / 2; index >= 1; index--) {
+            percolateDown(index);
+        }
+    }
+
+    /**
+     * Removes a post from the index. Does nothing if the post is not present.
+     *
+     * @param post the Post object to remove
+     */
+    public void remove(Post post) {
+        if (!contains(post)) {
+            return;
+        }
+
+        int index = post.heapIndex;
+        post.heapIndex = 0;
+
+        // Move the last element into the freed slot and restore the heap property
+        Post last = heap[size];
+        heap[size] = null;
+        size = size - 1;
+
+        if (index <= size) {
+            place(last, index);
+            percolateUp(index);
+            percolateDown(last.heapIndex);
+        }
+    }
+
+    /**
+     * Moves a post towards the root after its like count has increased.
+     * Does nothing if the post is not present.
+     *
+     * @param post the Post object whose priority increased
+     */
+    public void increaseKey(Post post) {
+        if (contains(post)) {
+            percolateUp(post.heapIndex);
+        }
+    }
+
+    /**
+     * Moves a post towards the leaves after its like count has decreased.
+     * Does nothing if the post is not present.
+     *
+     * @param post the Post object whose priority decreased
+     */
+    public void decreaseKey(Post post) {
+        if (contains(post)) {
+            percolateDown(post.heapIndex);
+        }
+    }
+
+    /**
+     * Opens a cursor that walks the index in priority order without modifying it.
+     *
+     * @return a cursor positioned at the highest-priority post
+     */
+    public Cursor cursor() {
+        Cursor cursor = new Cursor();
+        cursor.reset(this);
+        return cursor;
+    }
+
+    /**
+     * Checks if the index is empty.
+     *
+     * @return true if the index is empty, false otherwise
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the current size of the index.
+     *
+     * @return the number of posts in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Stores a post at a heap slot and records its position.
+     *
+     * @param post  the Post object to store
+     * @param index the heap slot
+     */
+    private void place(Post post, int index) {
+        heap[index] = post;
+        post.heapIndex = index;
+    }
+
+    /**
+     * Moves an element up the heap to restore the max-heap property.
+     *
+     * @param index the index of the element to percolate up
+     */
+    private void percolateUp(int index) {
+        Post post = heap[index];
+        while (index > 1 && MyMaxHeap.compare(post, heap[index / 2]) > 0) {
+            place(heap[index / 2], index); // Pull the parent down
+            index = index / 2;
+        }
+        place(post, index);
+    }
+
+    /**
+     * Moves an element down the heap to restore the max-heap property.
+     *
+     * @param index the index of the element to percolate down
+     */
+    private void percolateDown(int index) {
+        Post post = heap[index];
+        while (2 * index <= size) {
+            int child = 2 * index;
+
+            // Pick the larger of the two children
+            if (child + 1 <= size && MyMaxHeap.compare(heap[child + 1], heap[child]) > 0) {
+                child = child + 1;
+            }
+
+            if (MyMaxHeap.compare(heap[child], post) <= 0) {
+                break;
+            }
+
+            place(heap[child], index); // Pull the child up
+            index = child;
+        }
+        place(post, index);
+    }
+
+    /**
+     * Walks the posts of the index in descending priority order.
+     * The heap is visited best-first: a small frontier heap of heap slots starts at the root,
+     * and every slot taken from it offers its two children. Reading the first k posts costs
+     * O(k log k) time and the frontier never holds more than k + 1 slots.
+     * The index must not be modified while a cursor is in use. A cursor can be moved to
+     * another index with {@link #reset(PostIndex)}, which keeps its frontier array.
+     */
+    public static class Cursor {
+        // Heap array and size of the index being walked
+        private Post[] heap;
+        private int size;
+
+        // Frontier of heap slots still to visit (1-based heap ordered by the posts in those slots)
+        private int[] frontier;
+
+        // Current number of slots in the frontier
+        private int frontierSize;
+
+        /**
+         * Constructs a cursor that is not positioned on any index yet.
+         */
+        public Cursor() {
+            this.frontier = new int[8];
+            this.frontierSize = 0;
+        }
+
+        /**
+         * Positions the cursor at the root of an index, reusing its frontier.
+         *
+         * @param index the index to walk
+         */
+        public void reset(PostIndex index) {
+            this.heap = index.heap;
+            this.size = index.size;
+            this.frontierSize = 0;
+            if (size > 0) {
+                this.frontierSize = 1;
+                this.frontier[1] = 1;
+            }
+        }
+
+        /**
+         * Retrieves the next post without advancing.
+         *
+         * @return the next post in priority order, or null if the cursor is exhausted
+         */
+        public Post peek() {
+            if (frontierSize == 0) {
+                return null;
+            }
+            return heap[frontier[1]];
+        }
+
+        /**
+         * Returns the next post and advances the cursor.
+         *
+         * @return the next post in priority order, or null if the cursor is exhausted
+         */
+        public Post next() {
+            if (frontierSize == 0) {
+                return null;
+            }
+
+            // Take the best slot from the frontier
+            int slot = frontier[1];
+            frontier[1] = frontier[frontierSize];
+            frontierSize = frontierSize - 1;
+            siftDown(1);
+
+            // Offer its children
+            for (int child = 2 * slot; child <= 2 * slot + 1 && child <= size; child++) {
+                if (frontierSize == frontier.length - 1) {
+                    int[] newFrontier = new int[frontier.length * 2];
+                    System.arraycopy(frontier, 0, newFrontier, 0, frontierSize + 1);
+                    frontier = newFrontier;
+                }
+                frontierSize = frontierSize + 1;
+                frontier[frontierSize] = child;
+                siftUp(frontierSize);
+            }
+
+            return heap[slot];
+        }
+
+        /**
+         * Moves a slot up the frontier.
+         *
+         * @param index the frontier position to percolate up
+         */
+        private void siftUp(int index) {
+            int slot = frontier[index];
+            while (index > 1 && MyMaxHeap.compare(heap[slot], heap[frontier[index / 2]]) > 0) {
+                frontier[index] = frontier[index / 2];
+                index = index / 2;
+            }
+            frontier[index] = slot;
+        }
+
+        /**
+         * Moves a slot down the frontier.
+         *
+         * @param index the frontier position to percolate down
+         */
+        private void siftDown(int index) {
+            if (frontierSize == 0) {
+                return;
+            }
+            int slot = frontier[index];
+            while (2 * index <= frontierSize) {
+                int child = 2 * index;
+                if (child + 1 <= frontierSize
+                        && MyMaxHeap.compare(heap[frontier[child + 1]], heap[frontier[child]]) > 0) {
+                    child = child + 1;
+                }
+                if (MyMaxHeap.compare(heap[frontier[child]], heap[slot]) <= 0) {
+                    break;
+                }
+                frontier[index] = frontier[child];
+                index = child;
+            }
+            frontier[index] = slot;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks {@link PostIndex} against a reference rebuilt from scratch: random adds, removes
+ * and like toggles (increaseKey and decreaseKey) are applied to one index, and after every
+ * operation a cursor over it must return exactly the posts of the reference list, in the
+ * order of sorting that list by {@link MyMaxHeap#compare}.
+ *
+ * Every round starts from a new index, filled either one post at a time or in bulk with
+ * {@link PostIndex#build}, and keeps like counts small so that ties on likes, broken by
+ * post ID, are common.
+ *
+ * Usage: java PostIndexCheck [rounds] [operations] [seed]
+ */
+public class PostIndexCheck {
+
+    // Largest number of posts in an index
+    private static final int MAX_POSTS = 64;
+
+    public static void main(String[] args) {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        Random random = new Random(seed);
+        User author = new User(1, "author");
+        long start = System.nanoTime();
+        int failures = 0;
+        for (int round = 0; round < rounds && failures == 0; round++) {
+            failures += checkRound(random, author, round, operations);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println("Rounds: " + rounds + ", operations per round: " + operations
+                + ", seed: " + seed + ", took " + elapsed / 1000000 + " ms");
+        System.out.println(failures == 0 ? "OK" : "FAILED: " + failures + " violations");
+        if (failures != 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs one round of random operations on a new index.
+     *
+     * @param random     the source of the operations
+     * @param author     the author of the posts
+     * @param round      the number of the round, for messages
+     * @param operations the number of operations
+     * @return the number of violations found
+     */
+    private static int checkRound(Random random, User author, int round, int operations) {
+        PostIndex index = new PostIndex();
+        List<Post> reference = new ArrayList<>();
+        int nextNumber = 1;
+
+        // Start from a bulk-built index every other round
+        if (round % 2 == 1) {
+            int count = random.nextInt(MAX_POSTS / 2);
+            Post[] initial = new Post[count];
+            for (int i = 0; i < count; i++) {
+                initial[i] = newPost(random, author, nextNumber++);
+                reference.add(initial[i]);
+            }
+            index.build(initial, 0, count);
+            int failed = compare(index, reference, "round " + round + " after build");
+            if (failed != 0) {
+                return failed;
+            }
+        }
+
+        for (int i = 0; i < operations; i++) {
+            int choice = random.nextInt(10);
+            String operation;
+            if (reference.isEmpty() || choice < 3 && reference.size() < MAX_POSTS) {
+                Post post = newPost(random, author, nextNumber++);
+                index.add(post);
+                reference.add(post);
+                operation = "add " + post.postId;
+            } else if (choice < 4) {
+                Post post = reference.remove(random.nextInt(reference.size()));
+                index.remove(post);
+                operation = "remove " + post.postId;
+            } else if (choice < 7) {
+                Post post = reference.get(random.nextInt(reference.size()));
+                post.likeCount++;
+                index.increaseKey(post);
+                operation = "like " + post.postId;
+            } else {
+                Post post = reference.get(random.nextInt(reference.size()));
+                if (post.likeCount == 0) {
+                    continue;
+                }
+                post.likeCount--;
+                index.decreaseKey(post);
+                operation = "unlike " + post.postId;
+            }
+
+            int failed = compare(index, reference, "round " + round + " after " + operation);
+            if (failed != 0) {
+                return failed;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Creates a post with a random ID from a small range and a random small like count.
+     * IDs are made unique by the post number, so only their order is random.
+     *
+     * @param random the source of the ID and likes
+     * @param author the author of the post
+     * @param number the number of the post
+     * @return the new post
+     */
+    private static Post newPost(Random random, User author, int number) {
+        Post post = new Post(number, "p" + random.nextInt(100) + "_" + number, author, "");
+        post.likeCount = random.nextInt(4);
+        return post;
+    }
+
+    /**
+     * Compares a full cursor walk and the size of an index with the sorted reference.
+     *
+     * @param index     the index under test
+     * @param reference the posts that must be in the index
+     * @param context   what happened last, for messages
+     * @return the number of violations found
+     */
+    private static int compare(PostIndex index, List<Post> reference, String context) {
+        List<Post> expected = new ArrayList<>(reference);
+        expected.sort((post1, post2) -> MyMaxHeap.compare(post2, post1));
+
+        if (index.size() != expected.size()) {
+            return report(context + ": index holds " + index.size() + " posts instead of " + expected.size());
+        }
+        PostIndex.Cursor cursor = index.cursor();
+        for (int i = 0; i < expected.size(); i++) {
+            Post post = cursor.next();
+            if (post != expected.get(i)) {
+                return report(context + ": position " + i + " holds "
+                        + (post == null ? "nothing" : post.postId + " (" + post.likeCount + " likes)")
+                        + " instead of " + expected.get(i).postId + " (" + expected.get(i).likeCount + " likes)");
+            }
+            if (!index.contains(post)) {
+                return report(context + ": " + post.postId + " is walked but not contained");
+            }
+        }
+        if (cursor.next() != null) {
+            return report(context + ": the cursor returns more posts than the index holds");
+        }
+        return 0;
+    }
+
+    private static int report(String violation) {
+        System.out.println("Violation: " + violation);
+        return 1;
+    }
+}
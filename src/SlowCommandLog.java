@@ -0,0 +1,148 @@
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Log of the commands of one {@link FileHandler} that take longer than a threshold, one
+ * line per command with everything that explains its time: the command line, the garbage
+ * collections and user or post table rehashes that happened while it ran, and for
+ * generate_feed and scroll_through_feed the {@link FeedTrace} of the feed. Time outside the
+ * feed is lookup and, on a {@link CommandServer}, waiting for locks.
+ *
+ * The log is off by default and is turned on with {@code -Dfeed.slowCommandMicros=<micros>};
+ * lines go to standard error, or are appended to the file named by
+ * {@code -Dfeed.slowCommandLog=<file>}. While it is on, every command reads the collection
+ * counts of the garbage collectors and every feed is traced.
+ */
+public class SlowCommandLog {
+    // Commands taking at least this long are logged (negative if the log is off)
+    static final long THRESHOLD_NANOS = threshold(System.getProperty("feed.slowCommandMicros"));
+
+    // Whether slow commands are logged
+    static final boolean ENABLED = THRESHOLD_NANOS >= 0;
+
+    // Where the log lines go, shared by all handlers
+    private static final PrintStream LOG = ENABLED ? open(System.getProperty("feed.slowCommandLog")) : null;
+
+    private static final List<GarbageCollectorMXBean> COLLECTORS =
+            ENABLED ? ManagementFactory.getGarbageCollectorMXBeans() : List.of();
+
+    // The FeedManager whose tables are watched for rehashes
+    private final FeedManager feedManager;
+
+    // Collections, collection time and rehashes before the current command
+    private long collections;
+    private long collectionMillis;
+    private long rehashes;
+
+    /**
+     * Constructs the slow command log of a handler.
+     *
+     * @param feedManager the FeedManager executing the handler's commands
+     */
+    SlowCommandLog(FeedManager feedManager) {
+        this.feedManager = feedManager;
+    }
+
+    /**
+     * Takes note of the state before a command. Only called while the log is on.
+     */
+    void begin() {
+        collections = 0;
+        collectionMillis = 0;
+        for (GarbageCollectorMXBean collector : COLLECTORS) {
+            collections += Math.max(0, collector.getCollectionCount());
+            collectionMillis += Math.max(0, collector.getCollectionTime());
+        }
+        rehashes = feedManager.rehashCount();
+        FeedTrace.current().clear();
+    }
+
+    /**
+     * Logs a command if it was slow. Only called while the log is on.
+     *
+     * @param batch   the batch holding the command
+     * @param command the index of the command in the batch
+     * @param nanos   the time the command took, in nanoseconds
+     */
+    void end(CommandBatch batch, int command, long nanos) {
+        if (nanos < THRESHOLD_NANOS) {
+            return;
+        }
+        long collectionsDuring = -collections;
+        long collectionMillisDuring = -collectionMillis;
+        for (GarbageCollectorMXBean collector : COLLECTORS) {
+            collectionsDuring += Math.max(0, collector.getCollectionCount());
+            collectionMillisDuring += Math.max(0, collector.getCollectionTime());
+        }
+
+        StringBuilder line = new StringBuilder("Slow command (")
+                .append(millis(nanos)).append(" ms): ").append(commandLine(batch, command))
+                .append("; GC: ").append(collectionsDuring).append(" collections, ")
+                .append(collectionMillisDuring).append(" ms")
+                .append("; rehashes: ").append(feedManager.rehashCount() - rehashes);
+
+        int code = batch.code(command);
+        FeedTrace trace = FeedTrace.current();
+        if ((code == CommandBatch.GENERATE_FEED || code == CommandBatch.SCROLL_THROUGH_FEED)
+                && trace.isComplete()) {
+            line.append("; ");
+            trace.describe(line);
+            line.append("; outside the feed ").append(millis(nanos - trace.elapsed())).append(" ms");
+        }
+        LOG.println(line);
+    }
+
+    /**
+     * Formats a duration in milliseconds with microsecond precision.
+     *
+     * @param nanos the duration in nanoseconds
+     * @return the formatted number of milliseconds
+     */
+    static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String commandLine(CommandBatch batch, int command) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink out = new OutputSink(bytes);
+        batch.appendLine(command, out);
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Cannot happen in memory
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static long threshold(String micros) {
+        if (micros == null || micros.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(micros.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring invalid feed.slowCommandMicros: " + micros);
+            return -1;
+        }
+    }
+
+    private static PrintStream open(String file) {
+        if (file == null || file.isEmpty()) {
+            return System.err;
+        }
+        try {
+            return new PrintStream(new FileOutputStream(file, true), true, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("Cannot open the slow command log " + file + ", using standard error: " + e.getMessage());
+            return System.err;
+        }
+    }
+}
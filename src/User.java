@@ -2,47 +2,67 @@
  * Represents a user in the Instagram Feed Manager system.
  * Each user has a unique ID, can follow/unfollow other users,
  * create posts, mark posts as seen, and like/unlike posts.
+ * Relations are keyed by the dense numbers of users and posts, not by their String IDs.
  */
 public class User {
+    // Dense number of the user, assigned by FeedManager (starting from 1)
+    public int id;
+
     // Unique identifier for the user
     public String userId;
 
-    // A map of followed users (userId -> User object)
-    public MyHashMap followedUsers;
+    // A map of followed users (user number -> User object)
+    public MyIntHashMap followedUsers;
+
+    // The numbers of the posts created by the user
+    public MyBitmap posts;
+
+    // Number of the user's latest post (0 before the first); post numbers only grow, so
+    // every later post of the user has a larger number
+    public int lastPostNumber;
 
-    // A map of posts created by the user (postId -> Post object)
-    public MyHashMap posts;
+    // The numbers of the posts the user has seen (of the first post with each seen ID)
+    public MyBitmap seenPosts;
 
-    // A map of posts the user has seen (postId -> Post object)
-    public MyHashMap seenPosts;
+    // What the user has seen of every author (author number -> SeenAuthor): the seen
+    // watermark of see_all_posts_from_user and the number of posts seen one by one
+    public MyIntHashMap seenAuthors;
 
-    // A map of posts the user has liked (postId -> Post object)
-    public MyHashMap likedPosts;
+    // The numbers of the posts the user has liked (of the first post with each liked ID)
+    public MyIntHashSet likedPosts;
+
+    // The user's posts ordered by like count, read by the feeds of followers
+    public PostIndex postIndex;
 
     /**
      * Constructs a User with a given unique ID.
      *
+     * @param id     the dense number of the user
      * @param userId the unique identifier for the user
      */
-    public User(String userId) {
+    public User(int id, String userId) {
+        this.id = id;
         this.userId = userId;
 
-        // Initialize hash maps to track followed users, posts, seen posts, and liked posts
-        this.followedUsers = new MyHashMap(10);
-        this.posts = new MyHashMap(10);
-        this.seenPosts = new MyHashMap(10);
-        this.likedPosts = new MyHashMap(10);
+        // Initialize the collections tracking followed users, posts, seen posts, and liked posts
+        this.followedUsers = new MyIntHashMap();
+        this.posts = new MyBitmap();
+        this.seenPosts = new MyBitmap();
+        this.seenAuthors = new MyIntHashMap();
+        this.likedPosts = new MyIntHashSet();
+
+        // Initialize the post index used by followers' feeds
+        this.postIndex = new PostIndex();
     }
 
     /**
      * Allows the user to follow another user.
      *
-     * @param userIdToFollow the ID of the user to follow
      * @param followedUser the User object of the user to follow
      */
-    public void follow(String userIdToFollow, User followedUser) {
+    public void follow(User followedUser) {
         // Add the followed user to the followedUsers map
-        this.followedUsers.insert(userIdToFollow, followedUser);
+        this.followedUsers.insert(followedUser.id, followedUser);
     }
 
     /**
@@ -52,7 +72,7 @@ public class User {
      */
     public void unfollow(User unfollowedUser) {
         // Remove the unfollowed user from the followedUsers map
-        this.followedUsers.remove(unfollowedUser.userId);
+        this.followedUsers.remove(unfollowedUser.id);
     }
 
     /**
@@ -61,8 +81,10 @@ public class User {
      * @param post the Post object to be created
      */
     public void createPost(Post post) {
-        // Add the post to the user's posts map
-        this.posts.insert(post.postId, post);
+        // Add the post to the user's posts
+        this.posts.add(post.id);
+        this.lastPostNumber = Math.max(this.lastPostNumber, post.id);
+        this.postIndex.add(post);
     }
 
     /**
@@ -71,8 +93,76 @@ public class User {
      * @param post the Post object to be marked as seen
      */
     public void markPostAsSeen(Post post) {
-        // Add the post to the seenPosts map
-        this.seenPosts.insert(post.postId, post);
+        // Add the post number to the seen posts; posts sharing the ID are seen with it
+        Post first = post.firstWithId;
+        if (this.seenPosts.add(first.id)) {
+            countSeen(first);
+        }
+    }
+
+    /**
+     * Counts a newly seen post ID towards the authors of all posts with that ID.
+     *
+     * @param first the first post with the ID
+     */
+    void countSeen(Post first) {
+        for (Post same = first; same != null; same = same.nextWithId) {
+            seenAuthor(same.author.id).count++;
+        }
+    }
+
+    /**
+     * Marks every post of another user as seen by this user, in constant time: the author's
+     * seen watermark moves up to the author's latest post. Posts the author creates later
+     * get larger numbers and stay unseen.
+     *
+     * @param author the user whose posts are marked as seen
+     */
+    public void markAllPostsAsSeen(User author) {
+        setSeenUpTo(author.id, author.lastPostNumber);
+    }
+
+    /**
+     * Raises the seen watermark of an author.
+     *
+     * @param authorNumber the number of the author
+     * @param postNumber   the number up to which the author's posts have been seen
+     */
+    void setSeenUpTo(int authorNumber, int postNumber) {
+        if (postNumber > 0) {
+            SeenAuthor seen = seenAuthor(authorNumber);
+            seen.upTo = Math.max(seen.upTo, postNumber);
+        }
+    }
+
+    /**
+     * Gets what the user has seen of an author, creating an empty record on first use.
+     *
+     * @param authorNumber the number of the author
+     * @return the record of the author
+     */
+    private SeenAuthor seenAuthor(int authorNumber) {
+        SeenAuthor seen = (SeenAuthor) this.seenAuthors.find(authorNumber);
+        if (seen == null) {
+            seen = new SeenAuthor();
+            this.seenAuthors.insert(authorNumber, seen);
+        }
+        return seen;
+    }
+
+    /**
+     * Checks whether the user is known to have seen every post of an author, so feeds can
+     * leave the author out without walking the author's post index. That is the case once
+     * the author's watermark covers the latest post, or once every post was seen one by one.
+     * A false answer only means some post may still be unseen.
+     *
+     * @param author the author to check
+     * @return true if every post of the author has been seen
+     */
+    public boolean hasSeenAllPostsOf(User author) {
+        SeenAuthor seen = (SeenAuthor) this.seenAuthors.find(author.id);
+        return seen != null
+                && (seen.upTo >= author.lastPostNumber || seen.count >= author.postIndex.size());
     }
 
     /**
@@ -82,43 +172,72 @@ public class User {
      * @return true if the post has been seen by the user, false otherwise
      */
     public boolean hasSeenPost(Post post) {
-        // Check if the postId exists in the seenPosts map
-        return this.seenPosts.contains(post.postId);
+        // Check if the post number is among the seen posts
+        Post first = post.firstWithId;
+        if (this.seenPosts.contains(first.id)) {
+            return true;
+        }
+        // Otherwise check every post with the ID against its author's seen watermark
+        if (this.seenAuthors.size() == 0) {
+            return false;
+        }
+        for (Post same = first; same != null; same = same.nextWithId) {
+            SeenAuthor seen = (SeenAuthor) this.seenAuthors.find(same.author.id);
+            if (seen != null && same.id <= seen.upTo) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Checks if the user is friends with (follows) another user.
      *
-     * @param userId the ID of the user to check
+     * @param user the user to check
      * @return true if the user follows the given user, false otherwise
      */
-    public boolean isFriendsWith(String userId) {
-        // Check if the userId exists in the followedUsers map
-        return this.followedUsers.contains(userId);
+    public boolean isFriendsWith(User user) {
+        // Check if the user number exists in the followedUsers map
+        return this.followedUsers.contains(user.id);
     }
 
     /**
      * Toggles the like status for a post. If the post is not liked, it will be liked.
      * If it is already liked, it will be unliked. Marks the post as seen in either case.
      *
-     * @param postId the ID of the post to toggle the like status
      * @param post the Post object to be liked or unliked
-     * @return a String message indicating the like/unlike action
+     * @return true if the post is liked now, false if it was unliked
      */
-    public String toggleLike(String postId, Post post) {
+    public boolean toggleLike(Post post) {
         // Mark the post as seen before toggling the like status
         markPostAsSeen(post);
 
         // If the post is not liked, like it and add it to likedPosts
-        if (!this.likedPosts.contains(postId)) {
-            post.addLike(postId); // Increment the like count
-            this.likedPosts.insert(postId, post); // Track the post as liked
-            return userId + " liked " + postId + ".";
+        // Likes are tracked per post ID, so liking one post with an ID and then another
+        // unlikes the second
+        int liked = post.firstWithId.id;
+        if (!this.likedPosts.contains(liked)) {
+            post.addLike(this.id); // Increment the like count
+            this.likedPosts.insert(liked); // Track the post as liked
+            post.author.postIndex.increaseKey(post); // Move the post up in the author's index
+            return true;
         } else {
             // If the post is already liked, unlike it and remove from likedPosts
-            post.removeLike(postId); // Decrement the like count
-            this.likedPosts.remove(postId); // Remove the post from liked posts
-            return userId + " unliked " + postId + ".";
+            post.removeLike(this.id); // Decrement the like count
+            this.likedPosts.remove(liked); // Remove the post from liked posts
+            post.author.postIndex.decreaseKey(post); // Move the post down in the author's index
+            return false;
         }
     }
+
+    /**
+     * What a user has seen of one author's posts.
+     */
+    static class SeenAuthor {
+        // Every post of the author up to this number has been seen (0 for none)
+        int upTo;
+
+        // Number of the author's posts whose IDs were marked seen one by one
+        int count;
+    }
 }
@@ -0,0 +1,454 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.SplittableRandom;
+
+/**
+ * Writes synthetic command files in the FileHandler format, at any size and the same for
+ * every run with the same arguments.
+ *
+ * The social graph follows a power law: follow and like targets are drawn from Zipf
+ * distributions, so a few old accounts gather most followers and recent posts most likes,
+ * and a share of follows and likes goes straight to a handful of celebrity accounts (the
+ * first users). Actors (who follows, likes, scrolls, sorts) are uniform. A small share of
+ * IDs are random unknown ones, as in the test cases, so that error paths are exercised too.
+ *
+ * The generator keeps only counters and two small rings of recent follows and celebrity
+ * posts, and writes through an {@link OutputSink}, so files far larger than the heap can be
+ * generated.
+ *
+ * Usage: java WorkloadGenerator &lt;outputFile|-&gt; [commands] [seed] [mix] [users] [zipfExponent] [celebrities]
+ *
+ * The mix is a preset (balanced, read-heavy, write-heavy) or weights per command, such as
+ * {@code create_post:10,toggle_like:30,generate_feed:20}; commands left out get weight 0.
+ * Users are created first, before the mix starts.
+ */
+public class WorkloadGenerator {
+    // Command names, indexed by command code as in CommandBatch
+    static final String[] COMMANDS = {
+            "create_user", "follow_user", "unfollow_user", "create_post", "see_post",
+            "see_all_posts_from_user", "toggle_like", "generate_feed", "scroll_through_feed", "sort_posts"
+    };
+
+    // Preset weights, indexed by command code
+    private static final int[] BALANCED = {2, 15, 3, 10, 8, 2, 30, 20, 5, 5};
+    private static final int[] READ_HEAVY = {1, 5, 1, 3, 10, 3, 12, 45, 15, 5};
+    private static final int[] WRITE_HEAVY = {5, 30, 5, 25, 5, 1, 25, 2, 1, 1};
+
+    // Share of follow, like and seen targets that go to a celebrity account or post
+    private static final double CELEBRITY_SHARE = 0.2;
+
+    // Share of user and post IDs replaced by random IDs that do not exist
+    private static final double UNKNOWN_ID_SHARE = 0.01;
+
+    // Share of scrolled posts that are liked
+    private static final double SCROLL_LIKE_SHARE = 0.3;
+
+    // Largest feed and scroll size
+    private static final int MAX_FEED = 20;
+
+    // Number of recent follows (for unfollows) and celebrity posts (for likes) remembered
+    private static final int RECENT = 4096;
+
+    private static final char[] ALPHANUMERIC =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    private final SplittableRandom random;
+
+    // Running sums of the command weights
+    private final int[] cumulativeWeights;
+
+    private final ZipfDistribution zipf;
+
+    private final int celebrities;
+
+    // Number of users and posts created so far
+    private int users;
+    private int posts;
+
+    // Recent follows as (follower << 32 | followed), a ring
+    private final long[] recentFollows = new long[RECENT];
+    private int followCount;
+
+    // Recent posts of celebrities, a ring
+    private final int[] celebrityPosts = new int[RECENT];
+    private int celebrityPostCount;
+
+    // Number of commands written, indexed by command code
+    private final long[] counts = new long[COMMANDS.length];
+
+    /**
+     * Constructs a generator.
+     *
+     * @param seed         the seed of the random source
+     * @param weights      the weight of every command, indexed by command code
+     * @param zipfExponent the exponent of the follow and like target distributions (above 0)
+     * @param celebrities  the number of celebrity accounts
+     */
+    public WorkloadGenerator(long seed, int[] weights, double zipfExponent, int celebrities) {
+        if (weights.length != COMMANDS.length) {
+            throw new IllegalArgumentException("Expected " + COMMANDS.length + " weights");
+        }
+        this.random = new SplittableRandom(seed);
+        this.cumulativeWeights = new int[weights.length];
+        int sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] < 0) {
+                throw new IllegalArgumentException("Negative weight for " + COMMANDS[i]);
+            }
+            sum += weights[i];
+            cumulativeWeights[i] = sum;
+        }
+        if (sum == 0) {
+            throw new IllegalArgumentException("All command weights are 0");
+        }
+        this.zipf = new ZipfDistribution(zipfExponent);
+        this.celebrities = Math.max(0, celebrities);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: java WorkloadGenerator <outputFile|-> [commands] [seed] [mix]"
+                    + " [users] [zipfExponent] [celebrities]");
+            System.exit(2);
+        }
+        boolean toStandardOutput = args[0].equals("-");
+        long commands = args.length > 1 ? Long.parseLong(args[1]) : 1000000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        int[] weights = parseMix(args.length > 3 ? args[3] : "balanced");
+        int users = args.length > 4 ? Integer.parseInt(args[4]) : (int) Math.min(Integer.MAX_VALUE, commands / 100);
+        double exponent = args.length > 5 ? Double.parseDouble(args[5]) : 1.0;
+        int celebrities = args.length > 6 ? Integer.parseInt(args[6]) : 10;
+
+        WorkloadGenerator generator = new WorkloadGenerator(seed, weights, exponent, celebrities);
+        long start = System.nanoTime();
+        OutputStream stream = toStandardOutput ? System.out : new FileOutputStream(args[0]);
+        try (OutputSink out = new OutputSink(stream, 1 << 20)) {
+            generator.generate(commands, users, out);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Keep standard output clean when the commands go there
+        PrintStream report = toStandardOutput ? System.err : System.out;
+        report.println("Commands: " + commands + ", users: " + generator.users + ", posts: " + generator.posts
+                + " (" + elapsed / 1000000 + " ms)");
+        for (int i = 0; i < COMMANDS.length; i++) {
+            report.println("  " + COMMANDS[i] + ": " + generator.counts[i]);
+        }
+    }
+
+    /**
+     * Parses a command mix: a preset name or comma separated {@code command:weight} pairs.
+     *
+     * @param mix the mix
+     * @return the weight of every command, indexed by command code
+     */
+    static int[] parseMix(String mix) {
+        switch (mix) {
+            case "balanced":
+                return BALANCED.clone();
+            case "read-heavy":
+                return READ_HEAVY.clone();
+            case "write-heavy":
+                return WRITE_HEAVY.clone();
+            default:
+                break;
+        }
+        int[] weights = new int[COMMANDS.length];
+        for (String entry : mix.split(",")) {
+            int colon = entry.indexOf(':');
+            String name = colon < 0 ? entry : entry.substring(0, colon);
+            int code = indexOf(name.trim());
+            if (code < 0 || colon < 0) {
+                throw new IllegalArgumentException("Bad mix entry: " + entry);
+            }
+            weights[code] = Integer.parseInt(entry.substring(colon + 1).trim());
+        }
+        return weights;
+    }
+
+    private static int indexOf(String command) {
+        for (int i = 0; i < COMMANDS.length; i++) {
+            if (COMMANDS[i].equals(command)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes a command file: the initial users, then the command mix.
+     *
+     * @param commands     the total number of commands
+     * @param initialUsers the number of users created before the mix
+     * @param out          the sink receiving the commands
+     */
+    public void generate(long commands, int initialUsers, OutputSink out) {
+        long written = 0;
+        for (; written < commands && users < initialUsers; written++) {
+            write(CommandBatch.CREATE_USER, out);
+        }
+        for (; written < commands; written++) {
+            write(feasible(nextCode()), out);
+        }
+    }
+
+    /**
+     * Picks a command code by weight.
+     */
+    private int nextCode() {
+        int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int code = 0;
+        while (pick >= cumulativeWeights[code]) {
+            code++;
+        }
+        return code;
+    }
+
+    /**
+     * Replaces a command that has nothing to act on yet: users come first, then posts.
+     */
+    private int feasible(int code) {
+        if (users < 2) {
+            return CommandBatch.CREATE_USER;
+        }
+        if (posts == 0 && (code == CommandBatch.SEE_POST || code == CommandBatch.TOGGLE_LIKE)) {
+            return CommandBatch.CREATE_POST;
+        }
+        return code;
+    }
+
+    /**
+     * Writes one command line.
+     *
+     * @param code the command code
+     * @param out  the sink receiving the line
+     */
+    private void write(int code, OutputSink out) {
+        counts[code]++;
+        out.append(COMMANDS[code]);
+        switch (code) {
+            case CommandBatch.CREATE_USER:
+                users++;
+                out.append(' ');
+                appendId(out, "user", users);
+                break;
+            case CommandBatch.FOLLOW_USER: {
+                int follower = actor();
+                int followed = target();
+                recentFollows[followCount++ & (RECENT - 1)] = (long) follower << 32 | followed;
+                appendUser(out, follower);
+                appendUser(out, followed);
+                break;
+            }
+            case CommandBatch.UNFOLLOW_USER: {
+                int follower;
+                int followed;
+                if (followCount > 0) {
+                    // Undo one of the recent follows, most of which still stand
+                    long follow = recentFollows[random.nextInt(Math.min(followCount, RECENT))];
+                    follower = (int) (follow >>> 32);
+                    followed = (int) follow;
+                } else {
+                    follower = actor();
+                    followed = target();
+                }
+                appendUser(out, follower);
+                appendUser(out, followed);
+                break;
+            }
+            case CommandBatch.CREATE_POST: {
+                // Celebrities post more, as do the older, more followed accounts
+                int author = celebrities > 0 && random.nextDouble() < CELEBRITY_SHARE
+                        ? celebrity()
+                        : zipf.sample(random, users);
+                posts++;
+                if (author <= celebrities) {
+                    celebrityPosts[celebrityPostCount++ & (RECENT - 1)] = posts;
+                }
+                appendUser(out, author);
+                out.append(' ');
+                appendId(out, "post", posts);
+                out.append(' ');
+                appendToken(out);
+                break;
+            }
+            case CommandBatch.SEE_POST:
+            case CommandBatch.TOGGLE_LIKE:
+                appendUser(out, actor());
+                appendPost(out, likedPost());
+                break;
+            case CommandBatch.SEE_ALL_POSTS_FROM_USER:
+                appendUser(out, actor());
+                appendUser(out, target());
+                break;
+            case CommandBatch.GENERATE_FEED:
+                appendUser(out, actor());
+                out.append(' ').append(1 + random.nextInt(MAX_FEED));
+                break;
+            case CommandBatch.SCROLL_THROUGH_FEED: {
+                int num = 1 + random.nextInt(MAX_FEED);
+                appendUser(out, actor());
+                out.append(' ').append(num);
+                for (int i = 0; i < num; i++) {
+                    out.append(random.nextDouble() < SCROLL_LIKE_SHARE ? " 1" : " 0");
+                }
+                break;
+            }
+            case CommandBatch.SORT_POSTS:
+                // Uniform: sorting a celebrity's thousands of posts would swamp the output
+                appendUser(out, actor());
+                break;
+            default:
+                throw new IllegalStateException("Unknown command code " + code);
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Picks the user performing a command, uniformly.
+     */
+    private int actor() {
+        return 1 + random.nextInt(users);
+    }
+
+    /**
+     * Picks a followed or viewed user: a celebrity, or a user by Zipf rank (older users rank
+     * higher).
+     */
+    private int target() {
+        if (celebrities > 0 && random.nextDouble() < CELEBRITY_SHARE) {
+            return celebrity();
+        }
+        return zipf.sample(random, users);
+    }
+
+    private int celebrity() {
+        return 1 + random.nextInt(Math.min(celebrities, users));
+    }
+
+    /**
+     * Picks a liked or seen post: a recent celebrity post, or a post by Zipf rank (newer
+     * posts rank higher).
+     */
+    private int likedPost() {
+        if (celebrityPostCount > 0 && random.nextDouble() < CELEBRITY_SHARE) {
+            return celebrityPosts[random.nextInt(Math.min(celebrityPostCount, RECENT))];
+        }
+        return posts + 1 - zipf.sample(random, posts);
+    }
+
+    private void appendUser(OutputSink out, int user) {
+        out.append(' ');
+        if (random.nextDouble() < UNKNOWN_ID_SHARE) {
+            appendToken(out);
+        } else {
+            appendId(out, "user", user);
+        }
+    }
+
+    private void appendPost(OutputSink out, int post) {
+        out.append(' ');
+        if (random.nextDouble() < UNKNOWN_ID_SHARE) {
+            appendToken(out);
+        } else {
+            appendId(out, "post", post);
+        }
+    }
+
+    /**
+     * Appends an ID as in the test cases: a prefix and a number of at least eight digits.
+     */
+    private static void appendId(OutputSink out, String prefix, int number) {
+        out.append(prefix);
+        for (int limit = 10000000; limit > 1 && number < limit; limit /= 10) {
+            out.append('0');
+        }
+        out.append(number);
+    }
+
+    /**
+     * Appends eight random letters and digits, used for contents and unknown IDs.
+     */
+    private void appendToken(OutputSink out) {
+        for (int i = 0; i < 8; i++) {
+            out.append(ALPHANUMERIC[random.nextInt(ALPHANUMERIC.length)]);
+        }
+    }
+
+    /**
+     * Zipf distribution over ranks 1 to n, with n free to change between samples. Uses
+     * rejection-inversion sampling (Hormann and Derflinger), which needs no table and takes
+     * a constant expected time for every n.
+     */
+    static final class ZipfDistribution {
+        private final double exponent;
+        private final double hIntegralX1;
+        private final double s;
+
+        // n of the last sample and the integral bound that depends on it
+        private int n;
+        private double hIntegralN;
+
+        /**
+         * Constructs a distribution.
+         *
+         * @param exponent the exponent (above 0); 1 is the classic Zipf law
+         */
+        ZipfDistribution(double exponent) {
+            if (!(exponent > 0)) {
+                throw new IllegalArgumentException("Zipf exponent must be above 0: " + exponent);
+            }
+            this.exponent = exponent;
+            this.hIntegralX1 = hIntegral(1.5) - 1;
+            this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        /**
+         * Draws a rank.
+         *
+         * @param random the random source
+         * @param n      the number of ranks (at least 1)
+         * @return a rank from 1 to n, rank k with probability proportional to k^-exponent
+         */
+        int sample(SplittableRandom random, int n) {
+            if (n != this.n) {
+                this.n = n;
+                this.hIntegralN = hIntegral(n + 0.5);
+            }
+            while (true) {
+                double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                int k = (int) Math.max(1, Math.min(n, (long) (x + 0.5)));
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1 - exponent) * logX) * logX;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = Math.max(-1, x * (1 - exponent));
+            return Math.exp(helper1(t) * x);
+        }
+
+        // log(1 + x) / x, accurate near 0
+        private static double helper1(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        // (exp(x) - 1) / x, accurate near 0
+        private static double helper2(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x * (1.0 / 3) * (1 + 0.25 * x));
+        }
+    }
+}